@@ -0,0 +1,3 @@
+del /s /q *.class
+javac src/main/BatchSolver.java -cp src
+java -classpath src main.BatchSolver %*
\ No newline at end of file
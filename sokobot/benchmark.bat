@@ -0,0 +1,2 @@
+call mvn -q -f ../pom.xml package
+java -jar benchmarks/target/benchmarks.jar %*
\ No newline at end of file
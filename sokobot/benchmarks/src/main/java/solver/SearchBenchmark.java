@@ -0,0 +1,230 @@
+package solver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import reader.FileReader;
+import reader.MapData;
+
+/**
+ * Times what the push search does for every node: the expansion (createPushConnections),
+ * the deadlock checks of a child (isFailedState and isDeadlocked), the goal matching
+ * update of a child (pushMatching and evaluate) and the matching solved again for every
+ * expanded node.
+ *
+ * The states are taken along a solution of the map, right after each of its pushes, so
+ * they are states the search really keeps: alive, and with the boxes where a solve puts
+ * them. Every call takes the next state, round robin. The benchmarks sit in the solver
+ * package to reach these methods, they are package-private there.
+ *
+ * Run from the sokobot folder (the maps are read from ./maps), -prof gc adds the bytes
+ * allocated per call:
+ *
+ *   java -jar benchmarks/target/benchmarks.jar SearchBenchmark -prof gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SearchBenchmark {
+  private static final int SAMPLES = 32; // states taken along the solution, at most
+  private static final long SOLVE_MILLIS = 60000;
+
+  /**
+   * A state right after a push of the solution, with the state before that push
+   */
+  private static class pushSample {
+    SokoBot expander; // set up with the state as its initial node
+    int node;
+    char[][] board;
+    int[] parentBoxes;
+    int[] childBoxes;
+    int from;
+    int to;
+    int player;
+    GoalMatching parentMatching;
+  }
+
+  @Param({"fiveboxes3", "madeuptest1", "original3"})
+  public String map;
+
+  private SokoBot checker; // set up with the map, runs the deadlock checks and matchings
+  private pushSample[] samples;
+  private int next;
+
+  @Setup
+  public void setUp()
+  {
+    MapData mapData = new FileReader().readFile(map);
+    if(mapData == null)
+      throw new IllegalStateException("No map " + map + " in ./maps");
+    char[][] mapTiles = mapData.getMap();
+    char[][] items = mapData.getItems();
+    int width = mapData.columns;
+
+    SolveResult solution = new SokoBot().solveWithLimits(width, mapData.rows, mapTiles, items, SOLVE_MILLIS, 0);
+    if(!solution.isSolved())
+      throw new IllegalStateException(map + " was not solved: " + solution.getStatus());
+
+    checker = new SokoBot();
+    checker.prepareSearch(mapTiles, items);
+
+    // replay the solution on the full board and keep the state after every push
+    char[][] board = new char[mapData.rows][];
+    int[] playerPos = new int[2];
+    for(int i = 0; i < mapData.rows; i++)
+    {
+      board[i] = mapData.tiles[i].clone();
+      for(int j = 0; j < width; j++)
+        if(board[i][j] == '@' || board[i][j] == '+')
+          playerPos = new int[]{i, j};
+    }
+
+    ArrayList<pushSample> pushes = new ArrayList<>();
+    for(char move : solution.getMoves().toCharArray())
+    {
+      int[] parentBoxes = boxCells(board);
+      int[] newPos = checker.updateBoard(move, board, playerPos);
+      int player = newPos[0] * width + newPos[1];
+      int[] childBoxes = boxCells(board);
+      if(!Arrays.equals(parentBoxes, childBoxes))
+      {
+        pushSample sample = new pushSample();
+        sample.board = copy(board);
+        sample.parentBoxes = parentBoxes;
+        sample.childBoxes = childBoxes;
+        sample.from = player;
+        sample.to = player + (player - (playerPos[0] * width + playerPos[1]));
+        sample.player = player;
+        pushes.add(sample);
+      }
+      playerPos = newPos;
+    }
+
+    // an even spread over the solution, the last push solves the level and has nothing to expand
+    int count = Math.min(SAMPLES, pushes.size() - 1);
+    samples = new pushSample[count];
+    for(int i = 0; i < count; i++)
+    {
+      pushSample sample = pushes.get(i * (pushes.size() - 1) / count);
+      sample.parentMatching = checker.solveMatching(sample.parentBoxes);
+
+      sample.expander = new SokoBot();
+      sample.expander.setSearchStrategy(SokoBot.SearchStrategy.IDA_STAR); // no table, so no child is a duplicate
+      sample.expander.setIdaTable(false);
+      sample.node = sample.expander.prepareSearch(mapTiles, itemsOf(sample.board));
+      samples[i] = sample;
+    }
+  }
+
+  private pushSample nextSample()
+  {
+    pushSample sample = samples[next];
+    next = next + 1 == samples.length ? 0 : next + 1;
+    return sample;
+  }
+
+  /**
+   * Generates every push child of a state, with all their checks
+   */
+  @Benchmark
+  public int createPushConnections()
+  {
+    pushSample sample = nextSample();
+    return sample.expander.expandPushes(sample.node);
+  }
+
+  /**
+   * The dead square and stuck box checks of a child, run before isDeadlocked
+   */
+  @Benchmark
+  public boolean isFailedState()
+  {
+    pushSample sample = nextSample();
+    return checker.isFailedState(sample.childBoxes, sample.board);
+  }
+
+  /**
+   * The freeze, learned pattern and corral checks of a child that is kept
+   */
+  @Benchmark
+  public boolean isDeadlocked()
+  {
+    pushSample sample = nextSample();
+    return checker.isDeadlocked(sample.board, sample.childBoxes, sample.player, sample.to);
+  }
+
+  /**
+   * The heuristic of a child: its matching updated from the parent's
+   */
+  @Benchmark
+  public void pushMatching(Blackhole blackhole)
+  {
+    pushSample sample = nextSample();
+    GoalMatching matching = checker.pushMatching(sample.parentMatching, sample.parentBoxes, sample.childBoxes, sample.from, sample.to);
+    blackhole.consume(matching);
+    blackhole.consume(checker.evaluate(sample.parentMatching.cost, matching, sample.from, sample.to));
+  }
+
+  /**
+   * The matching of a node solved from scratch, done once for every expanded node
+   */
+  @Benchmark
+  public GoalMatching solveMatching()
+  {
+    return checker.solveMatching(nextSample().childBoxes);
+  }
+
+  /**
+   * @return the sorted cells of the boxes on a board
+   */
+  private static int[] boxCells(char[][] board)
+  {
+    int width = board[0].length;
+    ArrayList<Integer> cells = new ArrayList<>();
+    for(int i = 0; i < board.length; i++)
+      for(int j = 0; j < width; j++)
+        if(board[i][j] == '$' || board[i][j] == '*')
+          cells.add(i * width + j);
+    return cells.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  /**
+   * @return the boxes and the player of a board, the way the solver takes them
+   */
+  private static char[][] itemsOf(char[][] board)
+  {
+    char[][] items = new char[board.length][board[0].length];
+    for(int i = 0; i < board.length; i++)
+      for(int j = 0; j < board[i].length; j++)
+      {
+        char tile = board[i][j];
+        items[i][j] = tile == '$' || tile == '*' ? '$' : tile == '@' || tile == '+' ? '@' : ' ';
+      }
+    return items;
+  }
+
+  private static char[][] copy(char[][] board)
+  {
+    char[][] result = new char[board.length][];
+    for(int i = 0; i < board.length; i++)
+      result[i] = board[i].clone();
+    return result;
+  }
+}
@@ -0,0 +1,74 @@
+package solver;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import reader.FileReader;
+import reader.MapData;
+
+/**
+ * Whole solves of the bundled maps with the default settings. The average time mode gives
+ * the time per solve; the throughput mode gives the solves per millisecond and, as the
+ * nodes counter, the nodes expanded per millisecond. -prof gc adds the allocation rate.
+ *
+ * Run from the sokobot folder (the maps are read from ./maps), one map with -p:
+ *
+ *   java -jar benchmarks/target/benchmarks.jar SolveBenchmark -p map=original3 -prof gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.AverageTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class SolveBenchmark {
+  private static final long SOLVE_MILLIS = 60000;
+
+  /**
+   * Counts the nodes the solves expand, JMH reports it next to the solves
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class searchCounters {
+    public long nodes;
+  }
+
+  @Param({"fiveboxes1", "fiveboxes2", "fiveboxes3", "fourboxes1", "fourboxes2", "fourboxes3", "madeuptest1",
+          "madeuptest2", "original1", "original2", "original3", "testlevel", "threeboxes1", "threeboxes2",
+          "threeboxes3", "twoboxes1", "twoboxes2", "twoboxes3"})
+  public String map;
+
+  private MapData mapData;
+  private char[][] mapTiles;
+  private char[][] items;
+
+  @Setup
+  public void setUp()
+  {
+    mapData = new FileReader().readFile(map);
+    if(mapData == null)
+      throw new IllegalStateException("No map " + map + " in ./maps");
+    mapTiles = mapData.getMap();
+    items = mapData.getItems();
+  }
+
+  @Benchmark
+  public SolveResult solve(searchCounters counters)
+  {
+    SolveResult result = new SokoBot().solveWithLimits(mapData.columns, mapData.rows, mapTiles, items, SOLVE_MILLIS, 0);
+    counters.nodes += result.getNodesExpanded();
+    return result;
+  }
+}
@@ -1,8 +1,17 @@
 package gui;
 
+import java.io.File;
+import java.io.IOException;
+
 import solver.SokoBot;
+import solver.SolutionCache;
+import solver.SolveListener;
+import solver.SolveResult;
 
 public class BotThread extends Thread {
+  // levels solved in this or an earlier run are replayed from here instead of searched again
+  private static final SolutionCache CACHE = new SolutionCache(new File("solutions.cache"), 1000);
+
   private SokoBot sokoBot;
   private int width;
   private int height;
@@ -10,9 +19,23 @@ public class BotThread extends Thread {
   private char[][] itemsData;
 
   private String solution = null;
+  private SolveResult result = null;
 
   public BotThread(int width, int height, char[][] mapData, char[][] itemsData) {
+    this(width, height, mapData, itemsData, null, 0);
+  }
+
+  /**
+   * @param listener told about the progress and the end of the solve, on this thread
+   * @param progressInterval least milliseconds between two progress calls
+   */
+  public BotThread(int width, int height, char[][] mapData, char[][] itemsData,
+                   SolveListener listener, long progressInterval) {
     sokoBot = new SokoBot();
+    sokoBot.setSolutionCache(CACHE);
+    if (listener != null) {
+      sokoBot.setSolveListener(listener, progressInterval);
+    }
     this.width = width;
     this.height = height;
     this.mapData = mapData;
@@ -21,10 +44,29 @@ public class BotThread extends Thread {
 
   @Override
   public void run() {
-    solution = sokoBot.solveSokobanPuzzle(width, height, mapData, itemsData);
+    result = sokoBot.solveWithLimits(width, height, mapData, itemsData, 0, 0);
+    solution = result.isSolved() ? result.getMoves() : "";
+
+    // the cache file is written here, after the solve, not while the solution is stored
+    try {
+      CACHE.flush();
+    } catch (IOException ex) {
+      ex.printStackTrace(); // the solution is still cached for this run
+    }
+  }
+
+  /**
+   * Stops the bot, the thread ends shortly after with a CANCELLED result
+   */
+  public void cancel() {
+    sokoBot.cancel();
   }
 
   public String getSolution() {
     return solution;
   }
+
+  public SolveResult getResult() {
+    return result;
+  }
 }
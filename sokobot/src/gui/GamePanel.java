@@ -9,13 +9,17 @@ import java.awt.event.KeyEvent;
 import java.awt.event.ActionEvent;
 import java.awt.image.BufferedImage;
 import java.awt.Font;
+import javax.swing.SwingUtilities;
 import javax.swing.Timer;
 import java.io.File;
 
 import javax.imageio.ImageIO;
 import reader.MapData;
+import solver.SolveListener;
+import solver.SolveProgress;
+import solver.SolveResult;
 
-public class GamePanel extends JPanel implements KeyListener, ActionListener {
+public class GamePanel extends JPanel implements KeyListener, ActionListener, SolveListener {
 
   private boolean mapLoaded = false;
   private int playerRow = -1;
@@ -63,11 +67,11 @@ public class GamePanel extends JPanel implements KeyListener, ActionListener {
 
   private BotThread solutionThread;
   private Timer solutionTimer;
-  private Timer checkForSolutionTimer;
   private long solutionStartTime;
   private long solutionEndTime;
 
   private final int SOLUTION_TIME_LIMIT = 15000;
+  private final int PROGRESS_INTERVAL = 100;
 
   public GamePanel() {
     this.setBackground(Color.BLACK);
@@ -322,13 +326,11 @@ public class GamePanel extends JPanel implements KeyListener, ActionListener {
           }
         }
 
-        solutionThread = new BotThread(columns, rows, mapDataCopy, itemsDataCopy);
-        solutionThread.start();
+        solutionThread = new BotThread(columns, rows, mapDataCopy, itemsDataCopy, this, PROGRESS_INTERVAL);
         solutionStartTime = System.nanoTime();
         solutionTimer = new Timer(SOLUTION_TIME_LIMIT, this);
         solutionTimer.start();
-        checkForSolutionTimer = new Timer(30, this);
-        checkForSolutionTimer.start();
+        solutionThread.start();
 
         this.repaint();
       }
@@ -382,25 +384,38 @@ public class GamePanel extends JPanel implements KeyListener, ActionListener {
           executeMove(3);
           break;
       }
-    } else if (e.getSource() == checkForSolutionTimer) {
-      if (!solutionThread.isAlive()) {
-        // Solution was found
-        solutionTimer.stop();
-        checkForSolutionTimer.stop();
-        String solution = solutionThread.getSolution();
-        this.playSolution(solution);
-      }
-      long elapsedSolutionTime = System.nanoTime() - solutionStartTime;
-      this.solutionTimeString = String.format("%.2f", elapsedSolutionTime / 1000000000.0) + "s";
-      this.repaint();
     } else if (e.getSource() == solutionTimer) {
       // Solution was not found
       solutionTimer.stop();
-      checkForSolutionTimer.stop();
+      solutionThread.cancel(); // stop the search so it does not keep using CPU and memory
       long elapsedSolutionTime = System.nanoTime() - solutionStartTime;
       this.solutionTimeString = String.format("%.2f", elapsedSolutionTime / 1000000000.0);
       this.statusString = STATUS_SOLUTION_TIMEOUT;
       this.repaint();
     }
   }
+
+  @Override
+  public void onProgress(SolveProgress progress) {
+    // called on the bot's thread, the panel is only changed on the event thread
+    SwingUtilities.invokeLater(() -> {
+      if (solutionTimer.isRunning()) {
+        this.solutionTimeString = String.format("%.2f", progress.getElapsedMillis() / 1000.0) + "s";
+        this.repaint();
+      }
+    });
+  }
+
+  @Override
+  public void onFinished(SolveResult result) {
+    SwingUtilities.invokeLater(() -> {
+      // a solve that ends after the time limit went off was cancelled by it
+      if (solutionTimer.isRunning()) {
+        solutionTimer.stop();
+        long elapsedSolutionTime = System.nanoTime() - solutionStartTime;
+        this.solutionTimeString = String.format("%.2f", elapsedSolutionTime / 1000000000.0) + "s";
+        this.playSolution(result.isSolved() ? result.getMoves() : "");
+      }
+    });
+  }
 }
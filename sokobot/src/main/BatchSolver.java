@@ -0,0 +1,231 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import reader.LevelPackReader;
+import reader.MapData;
+import solver.SokoBot;
+import solver.SolutionCache;
+import solver.SolveResult;
+
+/**
+ * Solves every map of a folder, or every level of a level pack, without opening a window
+ * and writes one report line per map. The maps are solved on a fixed number of threads,
+ * each with its own time and memory limit, so a hard map only costs its own limit.
+ * Levels are read as the threads get to them, so a pack of thousands is never loaded at once.
+ */
+public class BatchSolver {
+  private static final long NODE_BYTES = 256; // rough memory of an expanded node with its children, layouts and matchings
+
+  /**
+   * What one map ended with, a line of the report
+   */
+  private static class mapReport {
+    final String name;
+    final String status;
+    final long millis;
+    final long nodes;
+    final int moves;
+
+    mapReport(String name, String status, long millis, long nodes, int moves) {
+      this.name = name;
+      this.status = status;
+      this.millis = millis;
+      this.nodes = nodes;
+      this.moves = moves;
+    }
+  }
+
+  private File mapDir = new File("maps");
+  private int threads = Runtime.getRuntime().availableProcessors();
+  private long timeLimit = 10000; // in milliseconds, per map
+  private long memoryLimit = 256L << 20; // in bytes, per map
+  private File reportFile = new File("report.csv");
+  private SolutionCache cache; // null unless -cache is given, so the times are of real solves
+
+  public static void main(String[] args) {
+    BatchSolver batch = new BatchSolver();
+
+    try {
+      for (int i = 0; i < args.length; i++) {
+        switch (args[i]) {
+          case "-threads":
+            batch.threads = Integer.parseInt(args[++i]);
+            break;
+          case "-time":
+            batch.timeLimit = Long.parseLong(args[++i]);
+            break;
+          case "-memory":
+            batch.memoryLimit = Long.parseLong(args[++i]) << 20;
+            break;
+          case "-report":
+            batch.reportFile = new File(args[++i]);
+            break;
+          case "-cache":
+            batch.cache = new SolutionCache(new File(args[++i]), 10000);
+            break;
+          default:
+            batch.mapDir = new File(args[i]);
+        }
+      }
+    } catch (RuntimeException ex) {
+      System.err.println("Usage: BatchSolver [map folder | level pack] [-threads n] [-time ms] [-memory mb] [-report file.csv|file.json] [-cache file]");
+      System.exit(1);
+    }
+
+    File[] maps = batch.mapDir.isFile() ? new File[]{batch.mapDir} : batch.mapDir.listFiles(File::isFile);
+    if (maps == null) {
+      System.err.println("Not a folder or level file: " + batch.mapDir);
+      System.exit(1);
+    }
+    Arrays.sort(maps);
+
+    try {
+      ArrayList<mapReport> reports = batch.solveAll(maps);
+      if (batch.cache != null) {
+        batch.cache.close(); // the solutions of the whole run are written at once
+      }
+      batch.writeReport(reports);
+    } catch (IOException ex) {
+      ex.printStackTrace();
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Solves the maps on the thread pool. A file of several levels gives one map per level,
+   * named after the file and the level's number in it
+   *
+   * @param maps the map and level pack files
+   * @return one report per map, in the order of the files and levels
+   */
+  private ArrayList<mapReport> solveAll(File[] maps) {
+    ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+    ArrayDeque<Future<mapReport>> pending = new ArrayDeque<>();
+    ArrayDeque<String> pendingNames = new ArrayDeque<>();
+    ArrayList<mapReport> reports = new ArrayList<>();
+
+    try {
+      for (File map : maps) {
+        try (LevelPackReader pack = new LevelPackReader(map)) {
+          while (pack.hasNext()) {
+            MapData mapData = pack.next();
+            int level = pack.getLevelsRead();
+            String name = level == 1 && !pack.hasNext() ? map.getName() : map.getName() + "#" + level;
+            pending.add(pool.submit(() -> solveMap(name, mapData)));
+            pendingNames.add(name);
+
+            // a few levels ahead of the threads is enough to keep them busy
+            if (pending.size() > 2 * Math.max(1, threads)) {
+              collect(pending.poll(), pendingNames.poll(), reports);
+            }
+          }
+          if (pack.getLevelsRead() == 0) {
+            pending.add(CompletableFuture.completedFuture(new mapReport(map.getName(), "ERROR", 0, 0, 0)));
+            pendingNames.add(map.getName());
+          }
+        } catch (IOException | UncheckedIOException ex) {
+          ex.printStackTrace();
+          pending.add(CompletableFuture.completedFuture(new mapReport(map.getName(), "ERROR", 0, 0, 0)));
+          pendingNames.add(map.getName());
+        }
+      }
+
+      while (!pending.isEmpty()) {
+        collect(pending.poll(), pendingNames.poll(), reports);
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    } finally {
+      pool.shutdownNow();
+    }
+
+    return reports;
+  }
+
+  /**
+   * Waits for the solve of a map and adds its report
+   */
+  private static void collect(Future<mapReport> solve, String name, ArrayList<mapReport> reports)
+          throws InterruptedException {
+    try {
+      reports.add(solve.get());
+    } catch (ExecutionException ex) {
+      reports.add(new mapReport(name, "ERROR", 0, 0, 0));
+      ex.getCause().printStackTrace();
+    }
+    System.out.println(format(reports.get(reports.size() - 1)));
+  }
+
+  /**
+   * Solves one map within the limits. Half of the memory goes to the table of visited
+   * states, the other half caps the nodes expanded at an estimated NODE_BYTES each. A map
+   * stopped by that cap is reported as MEMORY_LIMIT
+   *
+   * @param name the name of the map in the report
+   * @param mapData the map
+   * @return the report of the map
+   */
+  private mapReport solveMap(String name, MapData mapData) {
+    SokoBot sokoBot = new SokoBot();
+    sokoBot.setTableBudget(memoryLimit / 2, false);
+    sokoBot.setSolutionCache(cache);
+    SolveResult result = sokoBot.solveWithLimits(mapData.columns, mapData.rows, mapData.getMap(), mapData.getItems(),
+            timeLimit, memoryLimit / 2 / NODE_BYTES);
+
+    // the node cap is how the memory limit is kept, so running into it is out of memory
+    String status = result.getStatus() == SolveResult.Status.NODE_LIMIT ? "MEMORY_LIMIT" : result.getStatus().name();
+    return new mapReport(name, status, result.getElapsedMillis(),
+            result.getNodesExpanded(), result.isSolved() ? result.getMoves().length() : 0);
+  }
+
+  /**
+   * Writes the reports as JSON if the report file ends in .json, as CSV otherwise. The CSV
+   * starts with a comment line saying how the memory limit was kept
+   */
+  private void writeReport(ArrayList<mapReport> reports) throws IOException {
+    boolean json = reportFile.getName().toLowerCase().endsWith(".json");
+
+    try (PrintWriter out = new PrintWriter(reportFile, "UTF-8")) {
+      if (json) {
+        out.println("[");
+        for (int i = 0; i < reports.size(); i++) {
+          mapReport report = reports.get(i);
+          out.printf("  {\"map\": \"%s\", \"status\": \"%s\", \"timeMs\": %d, \"nodesExpanded\": %d, \"solutionLength\": %d}%s%n",
+                  report.name.replace("\\", "\\\\").replace("\"", "\\\""), report.status, report.millis, report.nodes,
+                  report.moves, i < reports.size() - 1 ? "," : "");
+        }
+        out.println("]");
+      } else {
+        out.printf("# MEMORY_LIMIT: the %d MB limit per map is an estimate, kept as at most %d expanded nodes of about %d bytes%n",
+                memoryLimit >> 20, memoryLimit / 2 / NODE_BYTES, NODE_BYTES);
+        out.println("map,status,time_ms,nodes_expanded,solution_length");
+        for (mapReport report : reports) {
+          out.println(format(report));
+        }
+      }
+    }
+
+    System.out.println("Report written to " + reportFile);
+  }
+
+  /**
+   * @return the CSV line of a report, the map name quoted if it holds a comma or a quote
+   */
+  private static String format(mapReport report) {
+    String name = report.name.contains(",") || report.name.contains("\"")
+            ? "\"" + report.name.replace("\"", "\"\"") + "\"" : report.name;
+    return name + "," + report.status + "," + report.millis + "," + report.nodes + "," + report.moves;
+  }
+}
@@ -0,0 +1,204 @@
+package reader;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the levels of a file one at a time, so a pack of thousands of levels is never
+ * held in memory at once. Takes the plain map files of the maps folder as well as the
+ * usual multi-level .xsb/.sok packs: levels are blocks of board lines, anything else
+ * (titles, comments, authors, blank lines) separates them. Floor may be written as '-'
+ * or '_', and rows may be run-length encoded ("4#", rows split by '|').
+ *
+ * A level is titled by a "Title:" line after its board, or else by the last text line
+ * before it (a leading ';' dropped).
+ */
+public class LevelPackReader implements Iterator<MapData>, Closeable {
+  private final BufferedReader in;
+  private String pushedBack; // first board line of the next level, read while looking for a Title: line
+  private String nextTitle; // last text line after the previous level, titles the next one
+  private MapData next; // read ahead by hasNext
+  private int levels;
+
+  /**
+   * @param file the level file, read as ISO-8859-1 so any byte is a character
+   * @throws IOException if the file cannot be opened
+   */
+  public LevelPackReader(File file) throws IOException {
+    in = Files.newBufferedReader(file.toPath(), StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * @throws UncheckedIOException if the file cannot be read
+   */
+  @Override
+  public boolean hasNext() {
+    if (next == null) {
+      try {
+        next = readLevel();
+      } catch (IOException ex) {
+        throw new UncheckedIOException(ex);
+      }
+    }
+    return next != null;
+  }
+
+  /**
+   * @return the next level, sized to its longest row
+   * @throws UncheckedIOException if the file cannot be read
+   */
+  @Override
+  public MapData next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    MapData level = next;
+    next = null;
+    return level;
+  }
+
+  /**
+   * @return the number of levels read so far, the one hasNext read ahead included
+   */
+  public int getLevelsRead() {
+    return levels;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  /**
+   * @return the next level of the file, null at the end of the file
+   */
+  private MapData readLevel() throws IOException {
+    String title = nextTitle;
+    String line = pushedBack != null ? pushedBack : in.readLine();
+    pushedBack = null;
+    nextTitle = null;
+
+    // text before the board, the last line of it titles the level
+    while (line != null && boardRow(line) == null) {
+      if (!line.trim().isEmpty()) {
+        title = textOf(line);
+      }
+      line = in.readLine();
+    }
+    if (line == null) {
+      return null;
+    }
+
+    ArrayList<String> rows = new ArrayList<>();
+    String row;
+    while (line != null && (row = boardRow(line)) != null) {
+      for (String part : row.split("\\|", -1)) {
+        rows.add(part);
+      }
+      line = in.readLine();
+    }
+
+    // text after the board, up to the next board
+    while (line != null && boardRow(line) == null) {
+      String text = line.trim();
+      if (text.regionMatches(true, 0, "Title:", 0, 6)) {
+        title = textOf(line);
+      } else if (!text.isEmpty()) {
+        nextTitle = textOf(line);
+      }
+      line = in.readLine();
+    }
+    pushedBack = line;
+
+    int columns = 0;
+    for (String part : rows) {
+      columns = Math.max(columns, part.length());
+    }
+
+    MapData result = new MapData();
+    result.rows = rows.size();
+    result.columns = columns;
+    result.tiles = new char[result.rows][columns];
+    for (int i = 0; i < result.rows; i++) {
+      String part = rows.get(i);
+      for (int j = 0; j < columns; j++) {
+        result.tiles[i][j] = j < part.length() ? part.charAt(j) : ' ';
+      }
+    }
+    result.title = title;
+    levels++;
+
+    return result;
+  }
+
+  /**
+   * Reads a line as a row of a board
+   *
+   * @param line the line, as read
+   * @return the tiles of the row with run lengths expanded and floor as ' ', null if the
+   * line is not part of a board
+   */
+  private static String boardRow(String line) {
+    StringBuilder row = new StringBuilder(line.length());
+    boolean wall = false;
+    int count = 0;
+
+    int end = line.length();
+    while (end > 0 && Character.isWhitespace(line.charAt(end - 1))) {
+      end--;
+    }
+
+    for (int i = 0; i < end; i++) {
+      char tile = line.charAt(i);
+      if (tile >= '0' && tile <= '9') {
+        count = count * 10 + tile - '0';
+        continue;
+      }
+
+      switch (tile) {
+        case '#':
+          wall = true;
+          break;
+        case '-':
+        case '_':
+          tile = ' ';
+          break;
+        case ' ':
+        case '@':
+        case '+':
+        case '$':
+        case '*':
+        case '.':
+        case '|':
+          break;
+        default:
+          return null;
+      }
+      for (int n = Math.max(count, 1); n > 0; n--) {
+        row.append(tile);
+      }
+      count = 0;
+    }
+
+    return wall ? row.toString() : null;
+  }
+
+  /**
+   * @return a text line without its surrounding spaces and a leading ';' or "Title:"
+   */
+  private static String textOf(String line) {
+    String text = line.trim();
+    if (text.startsWith(";")) {
+      return text.substring(1).trim();
+    }
+    return text.regionMatches(true, 0, "Title:", 0, 6) ? text.substring(6).trim() : text;
+  }
+}
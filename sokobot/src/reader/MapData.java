@@ -4,6 +4,35 @@ public class MapData {
   public char[][] tiles;
   public int rows;
   public int columns;
+  public String title; // from the level file, null if it has none
+
+  /**
+   * @return the walls, goals and empty spaces of the map, in the form the solver takes
+   */
+  public char[][] getMap() {
+    char[][] map = new char[rows][columns];
+    for (int i = 0; i < rows; i++) {
+      for (int j = 0; j < columns; j++) {
+        char tile = tiles[i][j];
+        map[i][j] = tile == '#' ? '#' : tile == '.' || tile == '+' || tile == '*' ? '.' : ' ';
+      }
+    }
+    return map;
+  }
+
+  /**
+   * @return the boxes and the player of the map, in the form the solver takes
+   */
+  public char[][] getItems() {
+    char[][] items = new char[rows][columns];
+    for (int i = 0; i < rows; i++) {
+      for (int j = 0; j < columns; j++) {
+        char tile = tiles[i][j];
+        items[i][j] = tile == '@' || tile == '+' ? '@' : tile == '$' || tile == '*' ? '$' : ' ';
+      }
+    }
+    return items;
+  }
 
   public void print() {
     for (int i = 0; i < rows; i++) {
@@ -0,0 +1,445 @@
+package solver;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Deadlock checks that look at more than one box, run on a state right after a push.
+ *
+ * A freeze deadlock is a box that can no longer move on either axis (held by walls,
+ * dead squares or other frozen boxes) while it or one of the boxes holding it is not
+ * on a goal.
+ *
+ * A corral is an area the player cannot walk into. When every push the player can make
+ * on the corral's boxes goes into the corral (a PI-corral), a small search with only the
+ * corral's boxes on the board is run. If that search runs out of states before it puts
+ * those boxes on goals or opens the corral, the state is dead. Removing the other boxes
+ * only frees up the board, so a dead result is also true for the real state.
+ *
+ * Every corral proven dead is kept as a pattern (its boxes and the player's region with
+ * only those boxes on the board), so later states holding the same boxes are pruned with
+ * a lookup instead of another search.
+ */
+class DeadlockDetector {
+  private static final int NOT_FROZEN = 0;
+  private static final int FROZEN_ON_GOALS = 1;
+  private static final int FROZEN_OFF_GOAL = 2;
+
+  private static final int CORRAL_SEARCH_LIMIT = 500; // states the corral search may expand before giving up
+  private static final int MAX_PATTERNS = 10000; // learned patterns kept, later ones are dropped
+  private static final int SEEN_SLOTS = Integer.highestOneBit(CORRAL_SEARCH_LIMIT) * 4; // at least twice the states a corral search keeps
+
+  /**
+   * A set of boxes proven dead while the player is in the region starting at regionCell
+   */
+  private static class deadPattern {
+    final int[] boxes;
+    final int regionCell;
+
+    deadPattern(int[] boxes, int regionCell)
+    {
+      this.boxes = boxes;
+      this.regionCell = regionCell;
+    }
+  }
+
+  private final int width;
+  private final int cells;
+  private final int[] neighbour;
+  private final boolean[] goal;
+  private final boolean[] deadSquare;
+  private final long[] boxZobrist;
+  private final long[] playerZobrist;
+
+  private final int[] mark; // flood fill marks, a cell is marked when its mark equals stamp
+  private int stamp;
+  private final int[] queue;
+  private final int[] corralMark; // empty cells of the corral being checked, the player reaching one opens it
+  private int corralStamp;
+  private final int[] boxMark; // boxes of the corral search state being expanded
+  private int boxStamp;
+  private final long[] seenKeys = new long[SEEN_SLOTS]; // Zobrist keys of the corral search states, open addressing
+  private final int[] seenMark = new int[SEEN_SLOTS]; // a slot is used when its mark equals seenStamp
+  private int seenStamp;
+  private final HashMap<Integer, ArrayList<deadPattern>> patternsByCell = new HashMap<>(); // every pattern is listed under each of its box cells
+  private int patternCount;
+
+  /**
+   * @param level the level, its walls, goals and dead squares are shared, not copied
+   */
+  DeadlockDetector(Level level)
+  {
+    this.width = level.width;
+    this.cells = level.cells;
+    this.neighbour = level.neighbour;
+    this.goal = level.goal;
+    this.deadSquare = level.deadSquare;
+    this.boxZobrist = level.boxZobrist;
+    this.playerZobrist = level.playerZobrist;
+    this.mark = new int[cells];
+    this.queue = new int[cells];
+    this.corralMark = new int[cells];
+    this.boxMark = new int[cells];
+  }
+
+  /**
+   * Checks if the box that was just pushed is part of a freeze deadlock
+   *
+   * @param board the state right after the push
+   * @param cell the cell the box was pushed to
+   *
+   * @return true if the box is frozen together with a box that is not on a goal
+   */
+  boolean isFreezeDeadlock(char[][] board, int cell)
+  {
+    return frozen(board, cell) == FROZEN_OFF_GOAL;
+  }
+
+  /**
+   * Checks if a box is frozen. The box is treated as a wall while its neighbours are
+   * checked, so two boxes holding each other do not recurse forever.
+   *
+   * @return NOT_FROZEN, FROZEN_ON_GOALS, or FROZEN_OFF_GOAL when a frozen box is off its goal
+   */
+  private int frozen(char[][] board, int cell)
+  {
+    char tile = board[cell / width][cell % width];
+    int result = tile == '*' ? FROZEN_ON_GOALS : FROZEN_OFF_GOAL;
+
+    board[cell / width][cell % width] = '#';
+    int horizontal = blockedOnAxis(board, neighbour[cell * 4 + Level.LEFT], neighbour[cell * 4 + Level.RIGHT]);
+    int vertical = horizontal == NOT_FROZEN ? NOT_FROZEN
+            : blockedOnAxis(board, neighbour[cell * 4 + Level.UP], neighbour[cell * 4 + Level.DOWN]);
+    board[cell / width][cell % width] = tile;
+
+    if(vertical == NOT_FROZEN)
+      return NOT_FROZEN;
+    return Math.max(result, Math.max(horizontal, vertical));
+  }
+
+  /**
+   * Checks if a box can not move along one axis
+   *
+   * @param board the state being checked
+   * @param a the neighbour cell on one side, -1 for a wall
+   * @param b the neighbour cell on the other side, -1 for a wall
+   *
+   * @return NOT_FROZEN if the box can move on this axis, otherwise the frozen result of the boxes holding it
+   */
+  private int blockedOnAxis(char[][] board, int a, int b)
+  {
+    if(a < 0 || b < 0)
+      return FROZEN_ON_GOALS;
+    char tileA = board[a / width][a % width];
+    char tileB = board[b / width][b % width];
+
+    if(tileA == '#' || tileB == '#' || (deadSquare[a] && deadSquare[b]))
+      return FROZEN_ON_GOALS;
+    if(tileA == '$' || tileA == '*')
+    {
+      int result = frozen(board, a);
+      if(result != NOT_FROZEN)
+        return result;
+    }
+    if(tileB == '$' || tileB == '*')
+      return frozen(board, b);
+    return NOT_FROZEN;
+  }
+
+  /**
+   * Checks if the push created or changed a corral that can never be solved
+   *
+   * @param board the state right after the push
+   * @param boxCells sorted cell indices of all the boxes
+   * @param playerCell cell index of the player
+   * @param pushedTo the cell the box was pushed to
+   *
+   * @return true if a PI-corral next to the pushed box is proven dead
+   */
+  boolean isCorralDeadlock(char[][] board, int[] boxCells, int playerCell, int pushedTo)
+  {
+    floodPlayer(board, playerCell);
+    if(mark[pushedTo] == stamp) // cannot happen for a box, kept as a guard
+      return false;
+
+    // the corral is every cell the player cannot reach that connects to the pushed box
+    int[] corralBoxes = findCorral(board, pushedTo);
+    if(corralBoxes.length == boxCells.length) // the sub-search would be the full problem
+      return false;
+
+    boolean solved = true;
+    for(int box : corralBoxes)
+      solved &= goal[box];
+    if(solved)
+      return false;
+
+    // PI-corral: every push the player can make on a corral box goes into the corral
+    for(int box : corralBoxes)
+      for(int d = 0; d < 4; d++)
+      {
+        int from = neighbour[box * 4 + (d ^ 1)];
+        int to = neighbour[box * 4 + d];
+        if(from < 0 || to < 0)
+          continue;
+        char target = board[to / width][to % width];
+        if(mark[from] == stamp && target != '$' && target != '*' && !deadSquare[to] && corralMark[to] != corralStamp)
+          return false;
+      }
+
+    boxStamp++;
+    for(int box : corralBoxes)
+      boxMark[box] = boxStamp;
+    int region = floodWithBoxes(playerCell, true);
+    if(region < 0) // the corral was closed by boxes outside it
+      return false;
+
+    if(!corralSearch(corralBoxes, playerCell))
+      return false;
+    addPattern(corralBoxes, region);
+    return true;
+  }
+
+  /**
+   * Checks the learned patterns that contain the pushed box against a state
+   *
+   * @param board the state right after the push
+   * @param playerCell cell index of the player
+   * @param pushedTo the cell the box was pushed to
+   *
+   * @return true if the state holds the boxes of a dead pattern with the player in the same region
+   */
+  boolean matchesDeadPattern(char[][] board, int playerCell, int pushedTo)
+  {
+    // a pattern without the pushed box would already have matched the parent
+    ArrayList<deadPattern> patterns = patternsByCell.get(pushedTo);
+    if(patterns == null)
+      return false;
+
+    for(deadPattern pattern : patterns)
+    {
+      boolean present = true;
+      for(int i = 0; i < pattern.boxes.length && present; i++)
+      {
+        char tile = board[pattern.boxes[i] / width][pattern.boxes[i] % width];
+        present = tile == '$' || tile == '*';
+      }
+
+      if(present)
+      {
+        boxStamp++;
+        for(int box : pattern.boxes)
+          boxMark[box] = boxStamp;
+        if(floodWithBoxes(playerCell, false) == pattern.regionCell)
+          return true;
+      }
+    }
+
+    return false;
+  }
+
+  private void addPattern(int[] boxes, int regionCell)
+  {
+    if(patternCount >= MAX_PATTERNS)
+      return;
+
+    deadPattern pattern = new deadPattern(boxes, regionCell);
+    for(int box : boxes)
+      patternsByCell.computeIfAbsent(box, cell -> new ArrayList<>()).add(pattern);
+    patternCount++;
+  }
+
+  /**
+   * Marks the empty cells of the corral that contains a cell, and lists the boxes in it.
+   * The box cells are left unmarked, the player stands on one after every push of the
+   * corral search without having walked into the corral
+   */
+  private int[] findCorral(char[][] board, int start)
+  {
+    int[] boxes = new int[cells];
+    int boxCount = 0;
+    int head = 0;
+    int tail = 0;
+
+    corralStamp++;
+    corralMark[start] = corralStamp;
+    queue[tail++] = start;
+
+    while(head < tail)
+    {
+      int cell = queue[head++];
+      char tile = board[cell / width][cell % width];
+      if(tile == '$' || tile == '*')
+        boxes[boxCount++] = cell;
+
+      for(int d = 0; d < 4; d++)
+      {
+        int next = neighbour[cell * 4 + d];
+        if(next >= 0 && mark[next] != stamp && corralMark[next] != corralStamp)
+        {
+          corralMark[next] = corralStamp;
+          queue[tail++] = next;
+        }
+      }
+    }
+
+    for(int i = 0; i < boxCount; i++)
+      corralMark[boxes[i]] = 0;
+
+    int[] result = Arrays.copyOf(boxes, boxCount);
+    Arrays.sort(result);
+    return result;
+  }
+
+  /**
+   * Bounded breadth-first push search with only the corral's boxes on the board
+   *
+   * @return true only if every reachable state was expanded and none solved or opened the corral
+   */
+  private boolean corralSearch(int[] corralBoxes, int playerCell)
+  {
+    ArrayDeque<int[]> open = new ArrayDeque<>(); // box cells followed by the player cell
+    int expanded = 0;
+    int n = corralBoxes.length;
+
+    int[] start = Arrays.copyOf(corralBoxes, n + 1);
+    start[n] = playerCell;
+    open.add(start);
+    seenStamp++;
+
+    while(!open.isEmpty())
+    {
+      int[] state = open.poll();
+
+      boxStamp++;
+      boolean solved = true;
+      long key = 0;
+      for(int i = 0; i < n; i++)
+      {
+        boxMark[state[i]] = boxStamp;
+        solved &= goal[state[i]];
+        key ^= boxZobrist[state[i]];
+      }
+      if(solved)
+        return false;
+
+      // the player walking into the corral means the corral is open
+      int region = floodWithBoxes(state[n], true);
+      if(region < 0)
+        return false;
+
+      if(!addSeen(key ^ playerZobrist[region]))
+        continue;
+      if(++expanded > CORRAL_SEARCH_LIMIT)
+        return false;
+
+      for(int i = 0; i < n; i++)
+        for(int d = 0; d < 4; d++)
+        {
+          int from = neighbour[state[i] * 4 + (d ^ 1)];
+          int to = neighbour[state[i] * 4 + d];
+          if(from >= 0 && to >= 0 && mark[from] == stamp && boxMark[to] != boxStamp && !deadSquare[to])
+          {
+            int[] child = state.clone();
+            child[i] = to;
+            child[n] = state[i];
+            Arrays.sort(child, 0, n);
+            open.add(child);
+          }
+        }
+    }
+
+    return true;
+  }
+
+  /**
+   * Adds the key of a corral search state to the states seen by the current search
+   *
+   * @return false if the key was already seen
+   */
+  private boolean addSeen(long key)
+  {
+    int mask = SEEN_SLOTS - 1;
+    for(int slot = (int) (key ^ key >>> 32) & mask; ; slot = (slot + 1) & mask)
+    {
+      if(seenMark[slot] != seenStamp)
+      {
+        seenMark[slot] = seenStamp;
+        seenKeys[slot] = key;
+        return true;
+      }
+      if(seenKeys[slot] == key)
+        return false;
+    }
+  }
+
+  /**
+   * Flood fills the player's region with the boxes in boxMark as obstacles
+   *
+   * @param playerCell cell index of the player
+   * @param stopAtCorral whether reaching an empty cell of the corral being checked ends the fill
+   *
+   * @return the smallest reached cell, or -1 if the player reaches the corral
+   */
+  private int floodWithBoxes(int playerCell, boolean stopAtCorral)
+  {
+    int min = playerCell;
+    int head = 0;
+    int tail = 0;
+
+    stamp++;
+    mark[playerCell] = stamp;
+    queue[tail++] = playerCell;
+
+    while(head < tail)
+    {
+      int cell = queue[head++];
+      if(stopAtCorral && corralMark[cell] == corralStamp)
+        return -1;
+      min = Math.min(min, cell);
+
+      for(int d = 0; d < 4; d++)
+      {
+        int next = neighbour[cell * 4 + d];
+        if(next >= 0 && boxMark[next] != boxStamp && mark[next] != stamp)
+        {
+          mark[next] = stamp;
+          queue[tail++] = next;
+        }
+      }
+    }
+
+    return min;
+  }
+
+  /**
+   * Flood fills the player's region on the real board
+   */
+  private void floodPlayer(char[][] board, int playerCell)
+  {
+    int head = 0;
+    int tail = 0;
+
+    stamp++;
+    mark[playerCell] = stamp;
+    queue[tail++] = playerCell;
+
+    while(head < tail)
+    {
+      int cell = queue[head++];
+      for(int d = 0; d < 4; d++)
+      {
+        int next = neighbour[cell * 4 + d];
+        if(next < 0 || mark[next] == stamp)
+          continue;
+        char tile = board[next / width][next % width];
+        if(tile != '$' && tile != '*')
+        {
+          mark[next] = stamp;
+          queue[tail++] = next;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,185 @@
+package solver;
+
+import java.util.Arrays;
+
+/**
+ * Minimum cost assignment of the boxes to the goals (Hungarian algorithm), used as a
+ * lower bound of the pushes left. Each goal gets its own box, so two boxes can no
+ * longer both count the same goal as their nearest one.
+ *
+ * Goals are the rows and boxes are the columns, in the same order as the sorted box
+ * cells of the state. Rows and columns are numbered from 1, index 0 is the free slot
+ * the algorithm needs. A matching is never changed after it is made, a push makes a
+ * new one from the parent's instead.
+ *
+ * A level may have more goals than boxes (never fewer, SokoBot turns those away before
+ * matching). The columns past the real boxes are then empty boxes that cost nothing on
+ * any goal, they take the goals left over, so the real boxes still choose among all the
+ * goals and the cost is 0 exactly when every box stands on a goal.
+ *
+ * A box that cannot be pushed to a goal at all has the distance UNREACHABLE to it. The
+ * algorithm then only uses such a pair when there is no other way to give every goal a
+ * box, and the matching is not complete.
+ */
+class GoalMatching {
+  private static final int INF = Integer.MAX_VALUE / 4;
+  static final int UNREACHABLE = 1 << 16; // more than any real distance, still far from overflowing when summed
+
+  final int[] goalPotential; // u, one per goal
+  final int[] boxPotential; // v, one per box
+  final int[] goalOfBox; // p, the goal (row) assigned to each box (column)
+  final int cost; // total distance of the assignment
+
+  private GoalMatching(int[] goalPotential, int[] boxPotential, int[] goalOfBox, int cost)
+  {
+    this.goalPotential = goalPotential;
+    this.boxPotential = boxPotential;
+    this.goalOfBox = goalOfBox;
+    this.cost = cost;
+  }
+
+  /**
+   * Solves the assignment from scratch, used for the initial state
+   *
+   * @param distance distance[goal][cell] from every goal to every cell
+   * @param boxCells sorted cell indices of the boxes
+   *
+   * @return the minimum cost matching
+   */
+  static GoalMatching solve(int[][] distance, int[] boxCells)
+  {
+    int n = distance.length;
+    int[] u = new int[n + 1];
+    int[] v = new int[n + 1];
+    int[] p = new int[n + 1];
+
+    for(int goal = 1; goal <= n; goal++)
+      assignGoal(distance, boxCells, u, v, p, goal);
+
+    return new GoalMatching(u, v, p, totalCost(distance, boxCells, p));
+  }
+
+  /**
+   * Updates the assignment after one box was pushed. Only the goal of the pushed box is
+   * taken back and assigned again with a single augmenting path, O(n^2) instead of O(n^3)
+   *
+   * @param distance distance[goal][cell] from every goal to every cell
+   * @param parentBoxes sorted box cells before the push
+   * @param childBoxes sorted box cells after the push
+   * @param from cell the box was pushed from
+   * @param to cell the box was pushed to
+   *
+   * @return the minimum cost matching of the child state
+   */
+  GoalMatching moveBox(int[][] distance, int[] parentBoxes, int[] childBoxes, int from, int to)
+  {
+    int n = distance.length;
+    int[] u = goalPotential.clone();
+    int[] v = boxPotential.clone();
+    int[] p = goalOfBox.clone();
+    int[] boxes = parentBoxes.clone();
+    int column = Arrays.binarySearch(parentBoxes, from) + 1;
+    int goal = p[column];
+
+    // the box keeps its column while the assignment is fixed, then the columns are sorted again below
+    boxes[column - 1] = to;
+    p[column] = 0;
+
+    // lower the potential of the moved box so every reduced cost stays non-negative
+    v[column] = INF;
+    for(int row = 1; row <= n; row++)
+      v[column] = Math.min(v[column], distance[row - 1][to] - u[row]);
+
+    assignGoal(distance, boxes, u, v, p, goal);
+
+    // reorder the columns to follow the sorted box cells of the child, the empty boxes stay last
+    int[] sortedV = v.clone();
+    int[] sortedP = p.clone();
+    for(int j = 0; j < childBoxes.length; j++)
+    {
+      int oldColumn = childBoxes[j] == to ? column : Arrays.binarySearch(parentBoxes, childBoxes[j]) + 1;
+      sortedV[j + 1] = v[oldColumn];
+      sortedP[j + 1] = p[oldColumn];
+    }
+
+    return new GoalMatching(u, sortedV, sortedP, totalCost(distance, childBoxes, sortedP));
+  }
+
+  /**
+   * @return true if every box is matched to a goal it can be pushed to, false if the
+   * state is a deadlock
+   */
+  boolean isComplete()
+  {
+    return cost < UNREACHABLE;
+  }
+
+  /**
+   * One phase of the Hungarian algorithm: finds the shortest augmenting path from an
+   * unassigned goal and flips it, keeping the potentials feasible
+   */
+  private static void assignGoal(int[][] distance, int[] boxCells, int[] u, int[] v, int[] p, int goal)
+  {
+    int n = distance.length;
+    int[] minv = new int[n + 1];
+    int[] way = new int[n + 1];
+    boolean[] used = new boolean[n + 1];
+    int j0 = 0;
+
+    Arrays.fill(minv, INF);
+    p[0] = goal;
+
+    do
+    {
+      used[j0] = true;
+      int i0 = p[j0];
+      int delta = INF;
+      int j1 = 0;
+
+      for(int j = 1; j <= n; j++)
+        if(!used[j])
+        {
+          int cur = (j <= boxCells.length ? distance[i0 - 1][boxCells[j - 1]] : 0) - u[i0] - v[j];
+          if(cur < minv[j])
+          {
+            minv[j] = cur;
+            way[j] = j0;
+          }
+          if(minv[j] < delta)
+          {
+            delta = minv[j];
+            j1 = j;
+          }
+        }
+
+      for(int j = 0; j <= n; j++)
+        if(used[j])
+        {
+          u[p[j]] += delta;
+          v[j] -= delta;
+        }
+        else
+          minv[j] -= delta;
+
+      j0 = j1;
+    } while(p[j0] != 0);
+
+    // flip the assignments along the path
+    do
+    {
+      int j1 = way[j0];
+      p[j0] = p[j1];
+      j0 = j1;
+    } while(j0 != 0);
+  }
+
+  private static int totalCost(int[][] distance, int[] boxCells, int[] p)
+  {
+    int cost = 0;
+
+    for(int j = 1; j <= boxCells.length; j++)
+      cost += distance[p[j] - 1][boxCells[j - 1]];
+
+    return cost;
+  }
+}
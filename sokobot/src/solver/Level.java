@@ -0,0 +1,150 @@
+package solver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The part of a level that never changes during a solve: walls, goals, and everything
+ * worked out from them. It is built once per solve and shared by the search states
+ * (which only keep their boxes and player), the workers of a parallel solve, the
+ * deadlock detectors and the macro moves.
+ *
+ * Cells are numbered row * width + column. The walls are stripped from the neighbour
+ * table, so a flood fill follows it without checking the board for walls or the edges
+ * of the grid, and floorCells lists the cells that are not walls for the loops that
+ * only care about those.
+ */
+class Level {
+  static final int UP = 0;
+  static final int DOWN = 1;
+  static final int LEFT = 2;
+  static final int RIGHT = 3; // a direction and its opposite differ in the lowest bit
+
+  final int width;
+  final int height;
+  final int cells;
+  final char[][] board; // walls, goals and empty spaces only, boxes and player are added per state
+  final boolean[] wall;
+  final boolean[] goal;
+  final int[] neighbour; // neighbour[cell * 4 + direction], -1 past the edge of the grid or into a wall
+  final int[] offsets; // cell index step of each direction
+  final int[] floorCells;
+  final int[] goalCells;
+  final int[][] goalDistance; // goalDistance[goal][cell], pushes a box needs from the cell to the goal
+  final int[] boxCost; // what a box on each cell adds to the NEAREST_GOAL heuristic
+  final boolean[] deadSquare; // cells a box can never be pushed from onto a goal
+  final long[] boxZobrist; // random key per cell for a box standing on it
+  final long[] playerZobrist; // random key per cell for the player standing on it
+
+  /**
+   * Compiles a level
+   *
+   * @param mapData the positions of the walls, empty spaces, and goals, every row as long as the first
+   */
+  Level(char[][] mapData)
+  {
+    this.height = mapData.length;
+    this.width = mapData[0].length;
+    this.cells = height * width;
+    this.board = new char[height][width];
+    this.wall = new boolean[cells];
+    this.goal = new boolean[cells];
+    this.neighbour = new int[cells * 4];
+    this.offsets = new int[]{-width, width, -1, 1};
+
+    ArrayList<Integer> floor = new ArrayList<>();
+    ArrayList<Integer> goals = new ArrayList<>();
+    for(int i = 0; i < height; i++)
+      for(int j = 0; j < width; j++)
+      {
+        int cell = i * width + j;
+        board[i][j] = mapData[i][j] == '#' || mapData[i][j] == '.' ? mapData[i][j] : ' ';
+        wall[cell] = board[i][j] == '#';
+        goal[cell] = board[i][j] == '.';
+        if(!wall[cell])
+          floor.add(cell);
+        if(goal[cell])
+          goals.add(cell);
+      }
+
+    for(int i = 0; i < height; i++)
+      for(int j = 0; j < width; j++)
+      {
+        int cell = i * width + j;
+        neighbour[cell * 4 + UP] = i > 0 && !wall[cell - width] ? cell - width : -1;
+        neighbour[cell * 4 + DOWN] = i < height - 1 && !wall[cell + width] ? cell + width : -1;
+        neighbour[cell * 4 + LEFT] = j > 0 && !wall[cell - 1] ? cell - 1 : -1;
+        neighbour[cell * 4 + RIGHT] = j < width - 1 && !wall[cell + 1] ? cell + 1 : -1;
+      }
+
+    floorCells = floor.stream().mapToInt(Integer::intValue).toArray();
+    goalCells = goals.stream().mapToInt(Integer::intValue).toArray();
+
+    goalDistance = new int[goalCells.length][];
+    for(int g = 0; g < goalCells.length; g++)
+      goalDistance[g] = pushDistances(goalCells[g], true);
+
+    boxCost = new int[cells];
+    deadSquare = new boolean[cells];
+    Arrays.fill(deadSquare, true);
+    for(int cell : floorCells)
+    {
+      int min = GoalMatching.UNREACHABLE;
+      for(int[] distance : goalDistance)
+        min = Math.min(min, distance[cell]);
+      boxCost[cell] = goal[cell] ? min : min + 2;
+      deadSquare[cell] = min == GoalMatching.UNREACHABLE; // no goal can be pulled back to the cell
+    }
+
+    Random random = new Random(cells * 31L + width); // fixed seed so runs are reproducible
+    boxZobrist = new long[cells];
+    playerZobrist = new long[cells];
+    for(int i = 0; i < cells; i++)
+    {
+      boxZobrist[i] = random.nextLong();
+      playerZobrist[i] = random.nextLong();
+    }
+  }
+
+  /**
+   * Counts the pushes a lone box needs between one cell and every other, going around the
+   * walls. Pulling the box away from a goal gives the pushes from every cell to that goal,
+   * pushing it away from where it starts gives the pushes from there to every cell
+   *
+   * @param cell the goal (pull) or starting box (push) the distances are counted from
+   * @param pull true to pull the box, false to push it
+   *
+   * @return the pushes for every cell, GoalMatching.UNREACHABLE where the box cannot go
+   */
+  int[] pushDistances(int cell, boolean pull)
+  {
+    int[] distance = new int[cells];
+    int[] queue = new int[floorCells.length];
+    int head = 0;
+    int tail = 0;
+
+    Arrays.fill(distance, GoalMatching.UNREACHABLE);
+    distance[cell] = 0;
+    queue[tail++] = cell;
+
+    while(head < tail)
+    {
+      int box = queue[head++];
+      for(int d = 0; d < 4; d++)
+      {
+        int next = neighbour[box * 4 + d]; // the box moves here
+        if(next < 0 || distance[next] != GoalMatching.UNREACHABLE)
+          continue;
+        int player = pull ? neighbour[next * 4 + d] : neighbour[box * 4 + (d ^ 1)]; // the player steps back here, or pushes from here
+        if(player >= 0)
+        {
+          distance[next] = distance[box] + 1;
+          queue[tail++] = next;
+        }
+      }
+    }
+
+    return distance;
+  }
+}
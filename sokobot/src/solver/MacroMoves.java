@@ -0,0 +1,416 @@
+package solver;
+
+import java.util.Arrays;
+
+/**
+ * Level analysis for the push search's macro moves, found once per level.
+ *
+ * A tunnel is a one-wide corridor: a cell with walls on both sides across the push. When
+ * a box is pushed along a tunnel with the player in the tunnel behind it, the player
+ * cannot get past the box, so the box is pushed on in one move until it leaves the
+ * tunnel, reaches a goal, or something blocks it.
+ *
+ * A goal room is an area holding every goal and no box at the start, joined to the rest
+ * of the level through a single door cell. The room is filled in a fixed order (the
+ * goals the farthest in first, each one chosen so the goals left can still be reached),
+ * so a box pushed onto the door is taken straight to the next goal of the order along a
+ * route worked out here, instead of the search trying every way into the room.
+ */
+class MacroMoves {
+  private final int width;
+  private final int cells;
+  private final int[] neighbour;
+  private final boolean[] goal;
+  private final boolean[] deadSquare;
+  private final boolean[] tunnelAcross; // walls left and right, a tunnel for vertical pushes
+  private final boolean[] tunnelAlong; // walls above and below, a tunnel for horizontal pushes
+
+  private int door = -1; // the room's only way in, -1 when the level has no goal room
+  private boolean[] room;
+  private int[] fillRank; // position of each room goal in the fill order, -1 for other cells
+  private int[] fillOrder;
+  private String[][] routes; // routes[step][direction], moves from the door to the goal of the step
+  private int[][] routePushes;
+  private int[][] routePlayer; // cell the player ends on
+
+  private int[] local; // room, door and the cells around the door, numbered for the route search
+  private int localCount;
+
+  /**
+   * @param level the level, its walls, goals and dead squares are shared, not copied
+   * @param boxCells the cells of the boxes at the start
+   * @param playerCell the cell of the player at the start
+   */
+  MacroMoves(Level level, int[] boxCells, int playerCell)
+  {
+    this.width = level.width;
+    this.cells = level.cells;
+    this.neighbour = level.neighbour;
+    this.goal = level.goal;
+    this.deadSquare = level.deadSquare;
+    this.tunnelAcross = new boolean[cells];
+    this.tunnelAlong = new boolean[cells];
+
+    for(int cell : level.floorCells)
+    {
+      tunnelAcross[cell] = neighbour[cell * 4 + Level.LEFT] < 0 && neighbour[cell * 4 + Level.RIGHT] < 0;
+      tunnelAlong[cell] = neighbour[cell * 4 + Level.UP] < 0 && neighbour[cell * 4 + Level.DOWN] < 0;
+    }
+
+    findGoalRoom(level.goalCells, boxCells, playerCell);
+  }
+
+  /**
+   * Follows a push along a tunnel
+   *
+   * @param board the state before the push
+   * @param to cell the box is pushed to
+   * @param direction index of the push direction (0 up, 1 down, 2 left, 3 right)
+   *
+   * @return the cell the box ends on, to itself when the push is not into a tunnel
+   */
+  int tunnelEnd(char[][] board, int to, int direction)
+  {
+    boolean[] tunnel = direction == Level.LEFT || direction == Level.RIGHT ? tunnelAlong : tunnelAcross;
+
+    // the player stands on the cell the box just left, both have to be in the tunnel
+    while(tunnel[to] && tunnel[neighbour[to * 4 + (direction ^ 1)]] && !goal[to] && to != door)
+    {
+      int next = neighbour[to * 4 + direction];
+      if(next < 0)
+        break;
+      char tile = board[next / width][next % width];
+      if(tile == '$' || tile == '*' || deadSquare[next])
+        break;
+      to = next;
+    }
+
+    return to;
+  }
+
+  /**
+   * @return the door of the goal room, -1 when the level has none
+   */
+  int getDoor()
+  {
+    return door;
+  }
+
+  /**
+   * Checks if a box just pushed onto the door can be taken into the goal room. That is
+   * the case while the boxes in the room are exactly the first goals of the fill order
+   *
+   * @param boxCells the cells of the boxes, the one on the door included
+   * @param direction index of the push onto the door (0 up, 1 down, 2 left, 3 right)
+   *
+   * @return the step of the fill order the box goes to, -1 if the room macro does not apply
+   */
+  int roomStep(int[] boxCells, int direction)
+  {
+    if(door < 0)
+      return -1;
+
+    int filled = 0;
+    int highest = -1;
+    for(int box : boxCells)
+      if(room[box])
+      {
+        if(fillRank[box] < 0)
+          return -1; // a box in the room off the order's goals
+        filled++;
+        highest = Math.max(highest, fillRank[box]);
+      }
+
+    if(highest != filled - 1 || filled == fillOrder.length || routes[filled][direction] == null)
+      return -1;
+    return filled;
+  }
+
+  int getRoomGoal(int step)
+  {
+    return fillOrder[step];
+  }
+
+  /**
+   * @return the moves from the door to the goal of a step, starting with the player on
+   * the cell behind the door in the given direction
+   */
+  String getRoomRoute(int step, int direction)
+  {
+    return routes[step][direction];
+  }
+
+  int getRoomPushes(int step, int direction)
+  {
+    return routePushes[step][direction];
+  }
+
+  int getRoomPlayer(int step, int direction)
+  {
+    return routePlayer[step][direction];
+  }
+
+  /**
+   * Looks for a goal room and, if there is one, the order to fill it in and the route to
+   * every goal of the order. Nothing is set when no fill order gets every goal in
+   */
+  private void findGoalRoom(int[] goalCells, int[] boxCells, int playerCell)
+  {
+    if(goalCells.length == 0)
+      return;
+
+    boolean[] floor = flood(playerCell, -1);
+    int floorCount = 0;
+    for(boolean f : floor)
+      if(f)
+        floorCount++;
+
+    // the door splits the floor in two, every goal on the side without the boxes and the player
+    boolean[] best = null;
+    int bestSize = Integer.MAX_VALUE;
+    int bestDoor = -1;
+    for(int cell = 0; cell < cells; cell++)
+    {
+      if(!floor[cell] || goal[cell])
+        continue;
+      boolean[] side = flood(goalCells[0], cell);
+      int size = 0;
+      boolean valid = !side[playerCell];
+      for(int g : goalCells)
+        valid &= side[g];
+      for(int box : boxCells)
+        valid &= !side[box];
+      for(int c = 0; c < cells && valid; c++)
+        if(side[c])
+          size++;
+      if(valid && size < floorCount - 1 && size < bestSize)
+      {
+        best = side;
+        bestSize = size;
+        bestDoor = cell;
+      }
+    }
+    if(best == null)
+      return;
+
+    door = bestDoor;
+    room = best;
+    local = new int[cells];
+    Arrays.fill(local, -1);
+    localCount = 0;
+    for(int cell = 0; cell < cells; cell++)
+      if(room[cell] || cell == door || isNextTo(cell, door))
+        local[cell] = localCount++;
+
+    if(!orderGoals(goalCells))
+      door = -1;
+  }
+
+  private boolean isNextTo(int cell, int other)
+  {
+    for(int d = 0; d < 4; d++)
+      if(neighbour[other * 4 + d] == cell)
+        return true;
+    return false;
+  }
+
+  /**
+   * @param start cell the fill starts from
+   * @param blocked cell the fill may not enter, -1 for none
+   *
+   * @return the floor cells reachable from start
+   */
+  private boolean[] flood(int start, int blocked)
+  {
+    boolean[] reached = new boolean[cells];
+    int[] queue = new int[cells];
+    int head = 0;
+    int tail = 0;
+
+    reached[start] = true;
+    queue[tail++] = start;
+    while(head < tail)
+    {
+      int cell = queue[head++];
+      for(int d = 0; d < 4; d++)
+      {
+        int next = neighbour[cell * 4 + d];
+        if(next >= 0 && next != blocked && !reached[next])
+        {
+          reached[next] = true;
+          queue[tail++] = next;
+        }
+      }
+    }
+
+    return reached;
+  }
+
+  /**
+   * Picks the fill order one goal at a time: of the goals a box can still be taken to,
+   * the one with the longest route that leaves every other open goal reachable
+   *
+   * @return true if every goal got a place in the order
+   */
+  private boolean orderGoals(int[] goalCells)
+  {
+    int n = goalCells.length;
+    boolean[] filled = new boolean[cells];
+    fillOrder = new int[n];
+    fillRank = new int[cells];
+    routes = new String[n][4];
+    routePushes = new int[n][4];
+    routePlayer = new int[n][4];
+    Arrays.fill(fillRank, -1);
+
+    for(int step = 0; step < n; step++)
+    {
+      int chosen = -1;
+      int chosenPushes = -1;
+      for(int g : goalCells)
+      {
+        if(filled[g])
+          continue;
+        int pushes = longestRoute(filled, g);
+        if(pushes <= chosenPushes)
+          continue;
+
+        // the goal only goes next if filling it leaves the others open
+        filled[g] = true;
+        boolean othersOpen = true;
+        for(int other : goalCells)
+          if(!filled[other] && longestRoute(filled, other) < 0)
+            othersOpen = false;
+        filled[g] = false;
+
+        if(othersOpen)
+        {
+          chosen = g;
+          chosenPushes = pushes;
+        }
+      }
+      if(chosen < 0)
+        return false;
+
+      fillOrder[step] = chosen;
+      fillRank[chosen] = step;
+      for(int d = 0; d < 4; d++)
+        routeTo(filled, d, chosen, step);
+      filled[chosen] = true;
+    }
+
+    return true;
+  }
+
+  /**
+   * @return the most pushes a box takes from the door to a goal over the directions it
+   * can come in from, -1 if it cannot get there from any
+   */
+  private int longestRoute(boolean[] filled, int target)
+  {
+    int longest = -1;
+    int[] pushes = new int[1];
+    for(int d = 0; d < 4; d++)
+      if(route(filled, d, target, pushes, null) != null)
+        longest = Math.max(longest, pushes[0]);
+    return longest;
+  }
+
+  /**
+   * Stores the route of a step for one direction, or null when the box cannot get to the
+   * goal coming in that way
+   */
+  private void routeTo(boolean[] filled, int direction, int target, int step)
+  {
+    int[] pushes = new int[1];
+    int[] player = new int[1];
+    routes[step][direction] = route(filled, direction, target, pushes, player);
+    routePushes[step][direction] = pushes[0];
+    routePlayer[step][direction] = player[0];
+  }
+
+  /**
+   * Breadth first search over (box, player) in the room with the filled goals as walls,
+   * from the box on the door and the player behind it
+   *
+   * @param filled goals already holding a box
+   * @param direction index of the push that put the box on the door
+   * @param target the goal to take the box to
+   * @param pushes set to the pushes of the route
+   * @param player set to the cell the player ends on, may be null
+   *
+   * @return the moves of the shortest route, null if there is none
+   */
+  private String route(boolean[] filled, int direction, int target, int[] pushes, int[] player)
+  {
+    char[] actions = {'u', 'd', 'l', 'r'};
+    int start = neighbour[door * 4 + (direction ^ 1)];
+    if(start < 0 || room[start])
+      return null;
+
+    int states = localCount * localCount;
+    int[] previous = new int[states];
+    byte[] moveTo = new byte[states];
+    int[] queue = new int[states];
+    int head = 0;
+    int tail = 0;
+    Arrays.fill(previous, -1);
+
+    int first = local[door] * localCount + local[start];
+    previous[first] = first;
+    queue[tail++] = first;
+
+    // cells of every state are kept by local number, so they are looked up again here
+    int[] cellOf = new int[localCount];
+    for(int cell = 0; cell < cells; cell++)
+      if(local[cell] >= 0)
+        cellOf[local[cell]] = cell;
+
+    while(head < tail)
+    {
+      int state = queue[head++];
+      int box = cellOf[state / localCount];
+      int at = cellOf[state % localCount];
+
+      if(box == target)
+      {
+        StringBuilder moves = new StringBuilder();
+        pushes[0] = 0;
+        if(player != null)
+          player[0] = at;
+        for(int s = state; s != first; s = previous[s])
+        {
+          moves.append(actions[moveTo[s]]);
+          if(s / localCount != previous[s] / localCount)
+            pushes[0]++;
+        }
+        return moves.reverse().toString();
+      }
+
+      for(int d = 0; d < 4; d++)
+      {
+        int next = neighbour[at * 4 + d];
+        int nextBox = box;
+        if(next < 0 || local[next] < 0 || filled[next])
+          continue;
+        if(next == box)
+        {
+          nextBox = neighbour[box * 4 + d];
+          // the box stays in the room (or on the door) and off the dead squares
+          if(nextBox < 0 || filled[nextBox] || deadSquare[nextBox] || !(room[nextBox] || nextBox == door))
+            continue;
+        }
+
+        int nextState = local[nextBox] * localCount + local[next];
+        if(previous[nextState] == -1)
+        {
+          previous[nextState] = state;
+          moveTo[nextState] = (byte) d;
+          queue[tail++] = nextState;
+        }
+      }
+    }
+
+    return null;
+  }
+}
@@ -0,0 +1,242 @@
+package solver;
+
+import java.util.Arrays;
+
+/**
+ * All the search nodes of one solve, kept in primitive arrays instead of one object per
+ * state. A node is an index into the arrays: its parent index, the move that made it,
+ * the player cell, its box layout, its cost and heuristic.
+ *
+ * Box layouts are stored apart from the nodes (boxCount cells each) so walks in STEP
+ * mode share the layout of their parent. The open list is a binary heap of node indices
+ * inside the pool, ordered by priority and then by heuristic.
+ */
+class NodePool {
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private final int boxCount;
+
+  private int size;
+  private int[] parent;
+  private byte[] move;
+  private int[] playerCell;
+  private int[] layout;
+  private int[] cost;
+  private int[] heuristic;
+  private long[] zobristKey;
+  private double[] priority;
+
+  private int layoutCount;
+  private int[] boxes;
+
+  private int heapSize;
+  private int[] heap;
+
+  /**
+   * @param boxCount number of boxes of the level
+   */
+  NodePool(int boxCount)
+  {
+    this.boxCount = boxCount;
+    this.parent = new int[INITIAL_CAPACITY];
+    this.move = new byte[INITIAL_CAPACITY];
+    this.playerCell = new int[INITIAL_CAPACITY];
+    this.layout = new int[INITIAL_CAPACITY];
+    this.cost = new int[INITIAL_CAPACITY];
+    this.heuristic = new int[INITIAL_CAPACITY];
+    this.zobristKey = new long[INITIAL_CAPACITY];
+    this.priority = new double[INITIAL_CAPACITY];
+    this.boxes = new int[INITIAL_CAPACITY * Math.max(boxCount, 1)];
+    this.heap = new int[INITIAL_CAPACITY];
+  }
+
+  /**
+   * Stores a box layout
+   *
+   * @param boxCells sorted cell indices of the boxes
+   *
+   * @return the index of the layout
+   */
+  int addLayout(int[] boxCells)
+  {
+    if((layoutCount + 1) * boxCount > boxes.length)
+      boxes = Arrays.copyOf(boxes, boxes.length * 2);
+    System.arraycopy(boxCells, 0, boxes, layoutCount * boxCount, boxCount);
+    return layoutCount++;
+  }
+
+  /**
+   * Forgets the last stored layout, used when its state turned out to be a duplicate or dead
+   */
+  void dropLastLayout()
+  {
+    layoutCount--;
+  }
+
+  int layoutCount()
+  {
+    return layoutCount;
+  }
+
+  /**
+   * Forgets every node and layout added after the given counts, used by IDA* to drop a
+   * line once it has been searched
+   *
+   * @param nodeCount number of nodes to keep
+   * @param keptLayouts number of layouts to keep
+   */
+  void truncate(int nodeCount, int keptLayouts)
+  {
+    size = nodeCount;
+    layoutCount = keptLayouts;
+  }
+
+  /**
+   * @return a new array with the sorted box cells of a layout
+   */
+  int[] getBoxes(int layoutIndex)
+  {
+    return Arrays.copyOfRange(boxes, layoutIndex * boxCount, (layoutIndex + 1) * boxCount);
+  }
+
+  /**
+   * Adds a node to the pool (not to the open list)
+   *
+   * @return the index of the new node
+   */
+  int add(int parentNode, char action, int player, int layoutIndex, int pathCost, int heuristicValue,
+          long key)
+  {
+    if(size == parent.length)
+      grow();
+
+    parent[size] = parentNode;
+    move[size] = (byte) action;
+    playerCell[size] = player;
+    layout[size] = layoutIndex;
+    cost[size] = pathCost;
+    heuristic[size] = heuristicValue;
+    zobristKey[size] = key;
+    return size++;
+  }
+
+  private void grow()
+  {
+    int capacity = parent.length * 2;
+    parent = Arrays.copyOf(parent, capacity);
+    move = Arrays.copyOf(move, capacity);
+    playerCell = Arrays.copyOf(playerCell, capacity);
+    layout = Arrays.copyOf(layout, capacity);
+    cost = Arrays.copyOf(cost, capacity);
+    heuristic = Arrays.copyOf(heuristic, capacity);
+    zobristKey = Arrays.copyOf(zobristKey, capacity);
+    priority = Arrays.copyOf(priority, capacity);
+  }
+
+  int size()
+  {
+    return size;
+  }
+
+  int getParent(int node)
+  {
+    return parent[node];
+  }
+
+  char getMove(int node)
+  {
+    return (char) move[node];
+  }
+
+  int getPlayerCell(int node)
+  {
+    return playerCell[node];
+  }
+
+  int getLayout(int node)
+  {
+    return layout[node];
+  }
+
+  int getCost(int node)
+  {
+    return cost[node];
+  }
+
+  int getHeuristic(int node)
+  {
+    return heuristic[node];
+  }
+
+  long getZobristKey(int node)
+  {
+    return zobristKey[node];
+  }
+
+  /**
+   * Puts a node in the open list
+   *
+   * @param node the node index
+   * @param nodePriority the value the open list is ordered by, lowest first
+   */
+  void push(int node, double nodePriority)
+  {
+    if(heapSize == heap.length)
+      heap = Arrays.copyOf(heap, heap.length * 2);
+
+    priority[node] = nodePriority;
+    int i = heapSize++;
+    while(i > 0 && isBefore(node, heap[(i - 1) / 2]))
+    {
+      heap[i] = heap[(i - 1) / 2];
+      i = (i - 1) / 2;
+    }
+    heap[i] = node;
+  }
+
+  /**
+   * Takes the node with the lowest priority out of the open list
+   *
+   * @return the node index, or -1 if the open list is empty
+   */
+  int poll()
+  {
+    if(heapSize == 0)
+      return -1;
+
+    int top = heap[0];
+    int last = heap[--heapSize];
+    int i = 0;
+
+    while(2 * i + 1 < heapSize)
+    {
+      int child = 2 * i + 1;
+      if(child + 1 < heapSize && isBefore(heap[child + 1], heap[child]))
+        child++;
+      if(!isBefore(heap[child], last))
+        break;
+      heap[i] = heap[child];
+      i = child;
+    }
+    heap[i] = last;
+
+    return top;
+  }
+
+  boolean isOpenEmpty()
+  {
+    return heapSize == 0;
+  }
+
+  int openSize()
+  {
+    return heapSize;
+  }
+
+  private boolean isBefore(int a, int b)
+  {
+    if(priority[a] != priority[b])
+      return priority[a] < priority[b];
+    return heuristic[a] < heuristic[b]; // ties go to the state closer to the goal
+  }
+}
@@ -0,0 +1,209 @@
+package solver;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hash distributed best-first search over box pushes (HDA*). Each worker owns the states
+ * whose region key falls in its share of the hash and keeps its own open list, node pool
+ * and transposition table, so none of them is ever shared between threads. A worker
+ * expands its best node and sends every child to the inbox of the worker that owns it,
+ * the owner drops duplicates and dead states and opens the rest.
+ *
+ * Node ids are global across the workers: node index * threads + worker.
+ */
+class ParallelSearch {
+
+  /**
+   * A push sent to the worker owning the child. Everything the owner needs to check and
+   * open the child is in here, so the owner never reads the pool of the sender
+   */
+  static class pushMessage {
+    final int parent; // global id of the parent
+    final char action;
+    final int from; // cell the box was pushed from
+    final int to; // cell the box was pushed to
+    final int player; // cell the player stands on after the push, from unless it was a macro push
+    final int[] parentBoxes;
+    final int[] childBoxes;
+    final GoalMatching parentMatching; // never changed once made, so it is safe to read from any thread
+    final int parentHeuristic;
+    final int cost;
+    final long key;
+    final long regionKey;
+
+    pushMessage(int parent, char action, int from, int to, int player, int[] parentBoxes, int[] childBoxes,
+                GoalMatching parentMatching, int parentHeuristic, int cost, long key, long regionKey)
+    {
+      this.parent = parent;
+      this.action = action;
+      this.from = from;
+      this.to = to;
+      this.player = player;
+      this.parentBoxes = parentBoxes;
+      this.childBoxes = childBoxes;
+      this.parentMatching = parentMatching;
+      this.parentHeuristic = parentHeuristic;
+      this.cost = cost;
+      this.key = key;
+      this.regionKey = regionKey;
+    }
+  }
+
+  private final ArrayList<ConcurrentLinkedQueue<pushMessage>> inbox = new ArrayList<>();
+  private final AtomicLong work = new AtomicLong(); // messages on the way plus open nodes, 0 means the search space is used up
+  private final AtomicLong expanded = new AtomicLong();
+  private final AtomicInteger goal = new AtomicInteger(-1);
+  private volatile boolean done;
+  private volatile boolean timedOut;
+
+  /**
+   * @param threads number of workers
+   */
+  ParallelSearch(int threads)
+  {
+    for(int i = 0; i < threads; i++)
+      inbox.add(new ConcurrentLinkedQueue<>());
+  }
+
+  /**
+   * @return the worker that owns the states with this region key
+   */
+  int ownerOf(long regionKey)
+  {
+    return (int) ((regionKey >>> 33) % inbox.size()); // the tables index with the low bits, so the owner takes high ones
+  }
+
+  int threads()
+  {
+    return inbox.size();
+  }
+
+  /**
+   * Sends a child to the worker that owns it
+   */
+  void send(pushMessage push)
+  {
+    work.incrementAndGet();
+    inbox.get(ownerOf(push.regionKey)).add(push);
+  }
+
+  /**
+   * @return the next push sent to a worker, null if its inbox is empty
+   */
+  pushMessage receive(int worker)
+  {
+    return inbox.get(worker).poll();
+  }
+
+  /**
+   * Counts a node that was put in an open list without a message (the initial state)
+   */
+  void opened()
+  {
+    work.incrementAndGet();
+  }
+
+  /**
+   * Called when a received push was a duplicate or dead, or when an open node has been
+   * expanded. The search ends with no solution once nothing is left anywhere
+   */
+  void finished()
+  {
+    if(work.decrementAndGet() == 0)
+      done = true;
+  }
+
+  /**
+   * Ends the search with a solved node, the first one found wins
+   *
+   * @param node global id of the node
+   */
+  void foundGoal(int node)
+  {
+    goal.compareAndSet(-1, node);
+    done = true;
+  }
+
+  /**
+   * Stops all the workers without a solution
+   */
+  void cancel()
+  {
+    done = true;
+  }
+
+  /**
+   * Counts a node a worker expanded
+   *
+   * @return the nodes expanded by all the workers so far
+   */
+  long countExpanded()
+  {
+    return expanded.incrementAndGet();
+  }
+
+  long getExpanded()
+  {
+    return expanded.get();
+  }
+
+  /**
+   * Stops all the workers because the time or node limit ran out
+   */
+  void timeUp()
+  {
+    timedOut = true;
+    done = true;
+  }
+
+  boolean isTimedOut()
+  {
+    return timedOut;
+  }
+
+  boolean isDone()
+  {
+    return done;
+  }
+
+  /**
+   * Runs the workers until one finds a solved state or the search space is used up
+   *
+   * @param workers one solver per thread, worker i owns inbox i
+   * @param whileWaiting run on the calling thread every interval while the workers search, may be null
+   * @param intervalMillis milliseconds between two runs of whileWaiting
+   *
+   * @return global id of the solved node, -1 if there is none
+   */
+  int run(SokoBot[] workers, Runnable whileWaiting, long intervalMillis)
+  {
+    Thread[] threads = new Thread[workers.length];
+
+    for(int i = 0; i < workers.length; i++)
+    {
+      threads[i] = new Thread(workers[i]::runWorker, "sokobot-worker-" + i);
+      threads[i].start();
+    }
+
+    try {
+      for(Thread thread : threads)
+        if(whileWaiting == null)
+          thread.join();
+        else
+          while(thread.isAlive())
+          {
+            thread.join(intervalMillis);
+            if(thread.isAlive())
+              whileWaiting.run();
+          }
+    } catch (InterruptedException e) {
+      done = true; // stop the workers if the solving thread is interrupted
+      Thread.currentThread().interrupt();
+    }
+
+    return goal.get();
+  }
+}
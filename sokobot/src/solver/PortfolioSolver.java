@@ -0,0 +1,98 @@
+package solver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Races several differently configured solvers on the same level, one thread each. The
+ * first one to solve the level gives the answer and the rest are cancelled, so the level
+ * gets the time of whichever setting suits it best. A variant that gives up without a
+ * solution does not end the race while others are still searching.
+ */
+public class PortfolioSolver {
+  private final ArrayList<SokoBot> variants = new ArrayList<>();
+
+  /**
+   * Makes a portfolio of the given solvers, each already configured with its setters
+   *
+   * @param variants the solvers to race, at least one
+   */
+  public PortfolioSolver(SokoBot... variants)
+  {
+    if(variants.length == 0)
+      throw new IllegalArgumentException("A portfolio needs at least one solver");
+    this.variants.addAll(Arrays.asList(variants));
+  }
+
+  /**
+   * Makes the default portfolio: the default greedy search, weighted A* with the same
+   * heuristic, and greedy with the nearest goal heuristic and freeze deadlocks only
+   *
+   * @return the portfolio
+   */
+  public static PortfolioSolver createDefault()
+  {
+    SokoBot greedy = new SokoBot();
+    SokoBot weighted = new SokoBot();
+    SokoBot nearest = new SokoBot();
+
+    weighted.setSearchStrategy(SokoBot.SearchStrategy.WEIGHTED_ASTAR);
+    nearest.setHeuristicType(SokoBot.HeuristicType.NEAREST_GOAL);
+    nearest.setDeadlockLevel(SokoBot.DeadlockLevel.FREEZE);
+
+    PortfolioSolver portfolio = new PortfolioSolver(greedy, weighted, nearest);
+    for(SokoBot variant : portfolio.variants) // the tables of all the variants share the memory of one solve
+      variant.setTableBudget((64L << 20) / portfolio.variants.size(), false);
+    return portfolio;
+  }
+
+  /**
+   * Solves the sokoban puzzle with all the variants at the same time
+   *
+   * @param width width of the puzzle
+   * @param height  height of the puzzle
+   * @param mapData the positions of the walls, empty spaces, and goals
+   * @param itemsData the positions of the boxes and player
+   *
+   * @return the moves of the first variant to solve the level, empty if none did
+   */
+  public String solveSokobanPuzzle(int width, int height, char[][] mapData, char[][] itemsData)
+  {
+    ExecutorService pool = Executors.newFixedThreadPool(variants.size());
+    ExecutorCompletionService<SolveResult> race = new ExecutorCompletionService<>(pool);
+
+    try {
+      for(SokoBot variant : variants)
+        race.submit(() -> variant.solveWithLimits(width, height, mapData, itemsData, 0, 0));
+
+      // the first variant to solve the level wins, one that gave up or failed does not end the race
+      for(int i = 0; i < variants.size(); i++)
+        try {
+          SolveResult result = race.take().get();
+          if(result.isSolved())
+            return result.getMoves();
+        } catch (ExecutionException e) {
+          e.getCause().printStackTrace();
+        }
+      return "";
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return "";
+    } finally {
+      // stop the losers and wait for them, so their nodes and tables are free once this returns
+      for(SokoBot variant : variants)
+        variant.cancel();
+      pool.shutdownNow();
+      try {
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
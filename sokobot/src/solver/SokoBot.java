@@ -1,250 +1,1305 @@
 package solver;
 
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.PriorityQueue;
 
 public class SokoBot {
-  private HashSet<String> visitedStates = new HashSet<>();
-  class sokoState{
 
-    char[][] currentState;
-    int[] playerPos;
-    char action; // the move done to get to the state
-    int heuristic;
-    sokoState parent;
-    ArrayList<sokoState> childNodes = new ArrayList<>();
+  /**
+   * How the search expands a state: STEP moves the player one tile per node,
+   * PUSH moves one box one tile per node and fills in the walks afterwards,
+   * BIDIRECTIONAL pushes forward from the start and pulls backward from the solved
+   * layout until the two searches reach the same state
+   */
+  public enum SearchMode { STEP, PUSH, BIDIRECTIONAL }
+
+  /**
+   * How the open nodes are ordered: GREEDY by the heuristic only, ASTAR by cost + heuristic,
+   * WEIGHTED_ASTAR by cost + weight * heuristic. IDA_STAR keeps no open list, it runs depth
+   * first searches over pushes with a growing cost + heuristic bound (in every search mode)
+   */
+  public enum SearchStrategy { GREEDY, ASTAR, WEIGHTED_ASTAR, IDA_STAR }
+
+  /**
+   * How a state is scored: NEAREST_GOAL sums each box's distance to its nearest goal,
+   * MATCHING gives every box its own goal with the cheapest total distance
+   */
+  public enum HeuristicType { NEAREST_GOAL, MATCHING }
+
+  /**
+   * Which deadlock checks prune the children: BASIC uses the dead squares and the box
+   * patterns of isFailedState, FREEZE adds frozen boxes, CORRAL adds PI-corrals
+   */
+  public enum DeadlockLevel { BASIC, FREEZE, CORRAL }
+
+  private SearchMode searchMode = SearchMode.PUSH;
+  private SearchStrategy searchStrategy = SearchStrategy.GREEDY;
+  private double weight = 2.0; // only used by WEIGHTED_ASTAR
+  private HeuristicType heuristicType = HeuristicType.MATCHING;
+  private DeadlockLevel deadlockLevel = DeadlockLevel.CORRAL;
+  private DeadlockDetector deadlockDetector;
+  private boolean useMacros = true;
+  private MacroMoves macroMoves; // tunnels and goal room of the level, null when macros are off
+  private long tableBudget = 64L << 20; // bytes the visited states may take, split between the tables in STEP mode
+  private boolean offHeapTable = false;
+  private boolean idaTable = true; // IDA_STAR skips states already searched in the same iteration
+  private TranspositionTable visitedStates; // exact states (player cell as is), used for walks in STEP mode
+  private TranspositionTable visitedRegions; // box layouts with the player reduced to its region, used for pushes
+  private Level level; // walls, goals and the tables worked out from them, shared with the workers
+  private int width; // number of columns of the level, used to turn (row, col) into a cell index
+  private int[] reachMark; // flood fill marks, a cell is reached when its mark equals reachStamp
+  private int reachStamp;
+  private int[] reachQueue;
+  private NodePool nodes; // every state of the current solve
+  private char[][] workBoard; // board of the state being expanded, rebuilt from the level's board
+  private int threads = 1;
+  private ParallelSearch parallel; // null unless this solver is a worker of a parallel solve
+  private int workerId;
+  private SokoBot[] workers; // the workers of a parallel solve, null for a single thread
+  private volatile boolean cancelled;
+  private long timeLimit; // in nanoseconds, 0 for no limit
+  private long nodeLimit; // nodes to expand at most, 0 for no limit
+  private long startTime;
+  private long expanded; // nodes expanded so far (by all the workers once a parallel solve is over)
+  private int bestNode; // expanded node closest to the goal, the partial line of an unfinished solve ends there
+  private int bestHeuristic;
+  private SolveResult.Status endStatus;
+  private NodePool pullNodes; // states of the backward search (BIDIRECTIONAL only)
+  private TranspositionTable visitedPulls; // box layouts with the player reduced to its region, backward search
+  private int[][] startDistance; // startDistance[box][cell], pushes from every starting box to every cell
+  private boolean[] unreachableSquare; // cells no box can be pushed to from where the boxes start
+  private int meetingPush; // forward node where the two searches met, -1 until they meet
+  private int meetingPull; // backward node where the two searches met
+  private volatile ParallelSearch activeSearch; // the running parallel search, so cancel can stop its workers
+  private SolverStats stats = new SolverStats(); // counters of the current solve
+  private SolveListener listener;
+  private long progressInterval; // in nanoseconds
+  private SolutionCache solutionCache; // solutions of levels solved before, null for none
+  private long nextProgress; // System.nanoTime() at which the next progress may be sent
+
+  public SokoBot()
+  {
+  }
+
+  /**
+   * Makes a worker of a parallel solve. The level data is shared with the solver that
+   * started the solve, the node pool, table and scratch arrays are the worker's own
+   *
+   * @param solver the solver that started the solve, already set up for the level
+   * @param workerId index of the worker, also the inbox it reads
+   * @param parallel the search shared by the workers
+   */
+  private SokoBot(SokoBot solver, int workerId, ParallelSearch parallel)
+  {
+    this.searchMode = solver.searchMode;
+    this.searchStrategy = solver.searchStrategy;
+    this.weight = solver.weight;
+    this.heuristicType = solver.heuristicType;
+    this.deadlockLevel = solver.deadlockLevel;
+    this.level = solver.level;
+    this.width = solver.width;
+    this.macroMoves = solver.macroMoves;
+    this.workerId = workerId;
+    this.parallel = parallel;
+    this.timeLimit = solver.timeLimit;
+    this.nodeLimit = solver.nodeLimit;
+    this.startTime = solver.startTime;
+    this.bestNode = -1;
+    this.stats = new SolverStats();
+
+    this.reachMark = new int[solver.reachMark.length];
+    this.reachQueue = new int[solver.reachQueue.length];
+    this.workBoard = new char[level.height][width];
+    this.nodes = new NodePool(solver.nodes.getBoxes(0).length);
+    this.visitedRegions = new TranspositionTable(solver.tableBudget / parallel.threads(), solver.offHeapTable);
+    this.deadlockDetector = new DeadlockDetector(level);
+  }
+
+  /**
+  *   Generates all possible branches for the state of the Sokoban and adds them to the
+  *   open list
+  *
+  *   @param parent the node of the parent
+  * */
+  private void createConnections(int parent)
+  {
+    char[] actions = {'u', 'd', 'l', 'r'};
+    char[][] board = buildBoard(parent, workBoard);
+    int oldCell = nodes.getPlayerCell(parent);
+    int[] playerPos = {oldCell / width, oldCell % width};
+    GoalMatching parentMatching = null; // walks keep the heuristic of the parent, only a push needs the matching
+
+    for(int i = 0; i < 4; i++) // iterate all the actions
+    {
+      if(!isValidMove(actions[i], board, playerPos) || isDeadPush(actions[i], board, playerPos)) // check if the moves is valid and does not push a box onto a dead square
+        continue;
+
+      // the child is made on the parent's board and taken back after, a move only changes
+      // the player's cell, the next one and (for a push) the one after
+      int newCell = oldCell + level.offsets[i];
+      int boxTo = newCell + level.offsets[i];
+      char oldTile = board[playerPos[0]][playerPos[1]];
+      char newTile = board[newCell / width][newCell % width];
+      boolean isPush = newTile == '$' || newTile == '*';
+      char boxTile = isPush ? board[boxTo / width][boxTo % width] : ' ';
+
+      if(isPush && parentMatching == null)
+        parentMatching = solveMatching(nodes.getBoxes(nodes.getLayout(parent)));
+      addStep(parent, actions[i], board, updateBoard(actions[i], board, playerPos), isPush, parentMatching);
+
+      board[playerPos[0]][playerPos[1]] = oldTile;
+      board[newCell / width][newCell % width] = newTile;
+      if(isPush)
+        board[boxTo / width][boxTo % width] = boxTile;
+    }
+  }
+
+  /**
+   * Checks the child of one step and adds it to the open list if it is new and not dead
+   *
+   * @param parent the node of the parent
+   * @param action the move of the step
+   * @param childState the board after the step
+   * @param newPlayerPos the position of the player after the step
+   * @param isPush true if the step pushed a box
+   * @param parentMatching goal matching of the parent, solved for its first push (MATCHING heuristic only)
+   */
+  private void addStep(int parent, char action, char[][] childState, int[] newPlayerPos, boolean isPush,
+                       GoalMatching parentMatching)
+  {
+    int parentLayout = nodes.getLayout(parent);
+    int[] parentBoxes = nodes.getBoxes(parentLayout);
+    int oldCell = nodes.getPlayerCell(parent);
+
+    // update the Zobrist key with only the cells that changed
+    int newCell = newPlayerPos[0] * width + newPlayerPos[1];
+    long key = nodes.getZobristKey(parent) ^ level.playerZobrist[oldCell] ^ level.playerZobrist[newCell];
+    int boxTo = newCell + (newCell - oldCell); // the box moves one more cell in the same direction
+    int layout = parentLayout;
+    int[] childBoxes = parentBoxes;
+    boolean isNew = true;
 
-    public sokoState(char[][] currentState, int[] playerPos, char action, int heuristic, sokoState parent)
+    // a push is a duplicate when the same box layout was already reached with the player anywhere in the same region,
+    // a walk keeps the layout of its parent so it is only checked against the exact player cell
+    if(isPush)
     {
-      this.currentState = new char[currentState.length][currentState[0].length];
-      this.playerPos = new int[2];
-      for (int i = 0; i < currentState.length; i++)
-        for (int j = 0; j < currentState[i].length; j++)
-          this.currentState[i][j] = currentState[i][j];
+      key ^= level.boxZobrist[newCell] ^ level.boxZobrist[boxTo];
+      childBoxes = moveBox(parentBoxes, newCell, boxTo);
+      layout = nodes.addLayout(childBoxes);
+      int region = normalizedPlayerCell(childState, newPlayerPos);
+      isNew = visitedRegions.add(key ^ level.playerZobrist[newCell] ^ level.playerZobrist[region], nodes.getCost(parent) + 1);
+    }
 
-      for(int i = 0; i < 2; i++)
-        this.playerPos[i] = playerPos[i];
+    // if the state of that child has no duplicate (add returns false when it is already in the hash of visited states)
+    if(isNew && visitedStates.add(key, nodes.getCost(parent) + 1))
+    {
+      if(isFailed(childBoxes, childState) // check if the state is doable (no stuck box/player)
+              || (isPush && isDeadlocked(childState, childBoxes, newCell, boxTo)))
+      {
+        if(isPush)
+          nodes.dropLastLayout();
+        return;
+      }
 
-      this.action = action;
-      this.heuristic = heuristic;this.parent = parent;
+      GoalMatching matching = isPush ? pushMatching(parentMatching, parentBoxes, childBoxes, newCell, boxTo) : null;
+      if(matching != null && !matching.isComplete()) // some goal can only get a box that cannot reach it
+      {
+        stats.matchingPrunes++;
+        if(isPush)
+          nodes.dropLastLayout();
+        return;
+      }
+      int heuristic = isPush ? evaluate(nodes.getHeuristic(parent), matching, newCell, boxTo) : nodes.getHeuristic(parent);
+      addChild(parent, action, newCell, layout, nodes.getCost(parent) + 1, heuristic, key);
+    }
+    else
+    {
+      stats.duplicates++;
+      if(isPush)
+        nodes.dropLastLayout(); // the table only keeps keys, so the layout of a duplicate is not needed
     }
+  }
+
+  /**
+  *   Generates all the box pushes the player can make from a state and adds them to the
+  *   open list. The walk to the push position is not stored, it is found again when the
+  *   solution is built
+  *
+  *   @param parent the node of the parent
+  * */
+  private void createPushConnections(int parent)
+  {
+    char[] actions = {'u', 'd', 'l', 'r'};
+    int[] offsets = {-width, width, -1, 1};
+    ArrayList<int[]> pushes = new ArrayList<>(); // {box cell, direction}
+    char[][] board = buildBoard(parent, workBoard);
+    int[] parentBoxes = nodes.getBoxes(nodes.getLayout(parent));
+    int playerCell = nodes.getPlayerCell(parent);
+    int[] playerPos = {playerCell / width, playerCell % width};
+
+    // mark the cells the player can walk to, then collect the pushes from those cells
+    // (collected first since the duplicate check below runs its own flood fill)
+    normalizedPlayerCell(board, playerPos);
+    for(int box : parentBoxes)
+      for(int d = 0; d < 4; d++)
+      {
+        int from = level.neighbour[box * 4 + (d ^ 1)]; // where the player has to stand
+        int to = level.neighbour[box * 4 + d]; // where the box ends up
+        if(from < 0 || to < 0)
+          continue;
+        char target = board[to / width][to % width];
+        if(reachMark[from] == reachStamp && target != '$' && target != '*' && !level.deadSquare[to])
+          pushes.add(new int[]{box, d});
+      }
+    GoalMatching parentMatching = pushes.isEmpty() ? null : solveMatching(parentBoxes);
 
-    public sokoState(sokoState parent, char action)
+    for(int[] push : pushes)
     {
-      this.currentState = new char[parent.currentState.length][parent.currentState[0].length];
-      this.playerPos = new int[2];
+      int box = push[0];
+      int to = box + offsets[push[1]];
+      int player = box; // the player stands where the box was
+      int cost = nodes.getCost(parent) + 1;
+      char action = actions[push[1]];
+
+      // a push into a tunnel goes on to its end, a push onto the door of the goal room goes on to the next goal
+      if(macroMoves != null)
+      {
+        to = macroMoves.tunnelEnd(board, to, push[1]);
+        cost += (to - box) / offsets[push[1]] - 1;
+        player = to - offsets[push[1]];
+        if(to == macroMoves.getDoor())
+        {
+          int step = macroMoves.roomStep(moveBox(parentBoxes, box, to), push[1]);
+          if(step >= 0)
+          {
+            to = macroMoves.getRoomGoal(step);
+            cost += macroMoves.getRoomPushes(step, push[1]);
+            player = macroMoves.getRoomPlayer(step, push[1]);
+            action = Character.toUpperCase(action); // marks the route for buildPushSolution
+          }
+        }
+      }
+
+      // take the player off its old tile first (the box may be pushed onto it) and the box off its tile,
+      // then put the box and the player where they end up
+      char playerTile = board[playerPos[0]][playerPos[1]];
+      board[playerPos[0]][playerPos[1]] = playerTile == '+' ? '.' : ' ';
+      char boxTile = board[box / width][box % width];
+      board[box / width][box % width] = boxTile == '*' ? '.' : ' ';
+      char toTile = board[to / width][to % width];
+      board[to / width][to % width] = toTile == '.' ? '*' : '$';
+      char endTile = board[player / width][player % width];
+      board[player / width][player % width] = endTile == '.' ? '+' : '@';
+
+      int[] childBoxes = moveBox(parentBoxes, box, to);
+      long key = nodes.getZobristKey(parent) ^ level.playerZobrist[playerCell] ^ level.playerZobrist[player]
+              ^ level.boxZobrist[box] ^ level.boxZobrist[to];
+      int region = normalizedPlayerCell(board, new int[]{player / width, player % width});
+      long regionKey = key ^ level.playerZobrist[player] ^ level.playerZobrist[region];
+
+      if(parallel != null) // the worker owning the child checks it
+        parallel.send(new ParallelSearch.pushMessage(parent * parallel.threads() + workerId, action, box, to, player,
+                parentBoxes, childBoxes, parentMatching, nodes.getHeuristic(parent), cost, key, regionKey));
+      else if(isNewState(regionKey, cost)
+              && !isFailed(childBoxes, board) && !isDeadlocked(board, childBoxes, player, to)) // check if the state is doable (no stuck box/player)
+      {
+        GoalMatching matching = pushMatching(parentMatching, parentBoxes, childBoxes, box, to);
+        if(matching == null || matching.isComplete()) // some goal can only get a box that cannot reach it
+        {
+          int layout = nodes.addLayout(childBoxes);
+          int child = addChild(parent, action, player, layout, cost, evaluate(nodes.getHeuristic(parent), matching, box, to), key);
+          if(visitedPulls != null) // BIDIRECTIONAL: the backward search may have this state already
+          {
+            visitedRegions.setValue(regionKey, child);
+            meet(child, visitedPulls.getValue(regionKey));
+          }
+        }
+        else
+          stats.matchingPrunes++;
+      }
+
+      // put the board back for the next push
+      board[player / width][player % width] = endTile;
+      board[to / width][to % width] = toTile;
+      board[box / width][box % width] = boxTile;
+      board[playerPos[0]][playerPos[1]] = playerTile;
+    }
+  }
+
+  /**
+   * Expands a node over pushes and drops its children again, the way IDA_STAR goes
+   * through the pool. Only the benchmarks call it, on a search set up by prepareSearch
+   * for IDA_STAR without a table, where no child is ever taken for a duplicate
+   *
+   * @param node the node to expand
+   *
+   * @return the number of children the node had
+   */
+  int expandPushes(int node)
+  {
+    if(searchStrategy != SearchStrategy.IDA_STAR || idaTable)
+      throw new IllegalStateException("Only IDA_STAR without a table expands without a table of visited states");
 
-      for (int i = 0; i < parent.currentState.length; i++)
-        for (int j = 0; j < parent.currentState[i].length; j++)
-          this.currentState[i][j] = parent.currentState[i][j];
+    int nodeMark = nodes.size();
+    int layoutMark = nodes.layoutCount();
+    createPushConnections(node);
+    int children = nodes.size() - nodeMark;
+    nodes.truncate(nodeMark, layoutMark);
+    return children;
+  }
+
+  /**
+   * Checks a push sent by another worker (or this one) and opens the child if it is new
+   * and not dead, the same checks createPushConnections does in a single thread solve
+   *
+   * @param push the push, its child is owned by this worker
+   */
+  private void acceptPush(ParallelSearch.pushMessage push)
+  {
+    if(!visitedRegions.add(push.regionKey, push.cost))
+    {
+      stats.duplicates++;
+      parallel.finished();
+      return;
+    }
 
-      for(int i = 0; i < 2; i++)
-        this.playerPos[i] = parent.playerPos[i];
+    char[][] board = buildBoard(push.childBoxes, push.player, workBoard);
+    if(isFailed(push.childBoxes, board) || isDeadlocked(board, push.childBoxes, push.player, push.to))
+    {
+      parallel.finished();
+      return;
+    }
 
-      this.action = action;
-      this.parent = parent;
+    GoalMatching matching = pushMatching(push.parentMatching, push.parentBoxes, push.childBoxes, push.from, push.to);
+    if(matching != null && !matching.isComplete())
+    {
+      stats.matchingPrunes++;
+      parallel.finished();
+      return;
     }
+    int heuristic = evaluate(push.parentHeuristic, matching, push.from, push.to);
+    int child = nodes.add(push.parent, push.action, push.player, nodes.addLayout(push.childBoxes), push.cost, heuristic, push.key);
+    nodes.push(child, getPriority(push.cost, heuristic));
+    stats.nodesGenerated++;
+    stats.notePeakOpen(nodes.openSize());
+  }
 
-    public int getHeuristic()
+  /**
+   * The loop of one worker of a parallel solve: open the pushes in the inbox, then expand
+   * the best open node, until a worker finds a solution or no work is left anywhere
+   */
+  void runWorker()
+  {
+    while(!parallel.isDone())
     {
-      return this.heuristic;
+      ParallelSearch.pushMessage push;
+      while((push = parallel.receive(workerId)) != null)
+        acceptPush(push);
+
+      if(nodes.isOpenEmpty())
+      {
+        Thread.yield(); // the other workers may still send something
+        continue;
+      }
+
+      int node = nodes.poll();
+      if(nodes.getHeuristic(node) == 0)
+        parallel.foundGoal(node * parallel.threads() + workerId);
+      else
+      {
+        noteBest(node);
+        createPushConnections(node);
+        if(isOverBudget(parallel.countExpanded()))
+          parallel.timeUp();
+      }
+      parallel.finished();
     }
+  }
+
+  /**
+   * Runs the push search on several threads
+   *
+   * @param initialState the initial state in the node pool, copied into the pool of its owner
+   *
+   * @return global id of the solved node, -1 if the search ended without one
+   */
+  private int solveInParallel(int initialState)
+  {
+    int heuristic = nodes.getHeuristic(initialState);
+    long regionKey = regionKeyOf(initialState);
+    ParallelSearch search = new ParallelSearch(threads);
+    int owner = search.ownerOf(regionKey);
+
+    workers = new SokoBot[threads];
+    for(int i = 0; i < threads; i++)
+      workers[i] = new SokoBot(this, i, search);
+
+    // the initial state goes straight into the open list of its owner
+    SokoBot first = workers[owner];
+    int firstState = first.nodes.add(-1, ' ', nodes.getPlayerCell(initialState), first.nodes.addLayout(nodes.getBoxes(nodes.getLayout(initialState))),
+            0, heuristic, nodes.getZobristKey(initialState));
+    first.visitedRegions.add(regionKey, 0);
+    first.nodes.push(firstState, getPriority(0, heuristic));
+    search.opened();
+
+    activeSearch = search;
+    if(cancelled) // cancel came in before the search was visible to it
+      search.cancel();
+    int goalState = search.run(workers, listener == null ? null : () -> {
+      // the workers' best states are their own, only the shared counts are sent
+      long elapsed = (System.nanoTime() - startTime) / 1000000;
+      listener.onProgress(new SolveProgress(elapsed, search.getExpanded(), -1, null));
+    }, progressInterval / 1000000);
+    activeSearch = null;
+
+    // the best node of the whole search is the best of the workers' best
+    expanded = search.getExpanded();
+    for(SokoBot worker : workers)
+      stats.add(worker.stats);
+    for(int i = 0; i < threads; i++)
+      if(workers[i].bestNode >= 0 && (bestNode < 0 || workers[i].bestHeuristic < bestHeuristic))
+      {
+        bestNode = workers[i].bestNode * threads + i;
+        bestHeuristic = workers[i].bestHeuristic;
+      }
+
+    setEndStatus(goalState, !search.isTimedOut());
+    return goalState;
+  }
+
+  /**
+   * Runs the search on the calling thread
+   *
+   * @param initialState the initial state in the node pool
+   *
+   * @return the solved node, -1 if the search ended without one
+   */
+  private int solveInSingleThread(int initialState)
+  {
+    int goalState = -1;
 
-    public void setAction(char action)
+    nodes.push(initialState, getPriority(0, nodes.getHeuristic(initialState))); // put the initial state in the open list
+    // add the state in the hash tables for duplicate checking, walks only exist in STEP mode so PUSH gives the whole budget to the regions
+    if(searchMode == SearchMode.STEP)
     {
-      this.action = action;
+      visitedStates = new TranspositionTable(tableBudget / 2, offHeapTable);
+      visitedRegions = new TranspositionTable(tableBudget / 2, offHeapTable);
+      visitedStates.add(nodes.getZobristKey(initialState), 0);
     }
+    else
+      visitedRegions = new TranspositionTable(tableBudget, offHeapTable);
+    visitedRegions.add(regionKeyOf(initialState), 0);
 
-    public void setChildNodes(ArrayList<sokoState> childNodes)
+    // take the best open node until a solved one comes up (an empty open list means there is no solution)
+    while(goalState < 0 && !nodes.isOpenEmpty() && !isCancelled() && !isOverBudget(expanded))
     {
-      this.childNodes = childNodes;
+      int node = nodes.poll();
+
+      if(nodes.getHeuristic(node) == 0)
+        goalState = node;
+      else
+      {
+        noteBest(node);
+        if(searchMode == SearchMode.PUSH)
+          createPushConnections(node); // adds the children of the current node to the open list
+        else
+          createConnections(node);
+        expanded++;
+        stats.notePeakOpen(nodes.openSize());
+        reportProgress(bestNode);
+      }
     }
+
+    setEndStatus(goalState, nodes.isOpenEmpty());
+    return goalState;
   }
 
+  /**
+   * Sets how the solve ended once the search loop stops
+   *
+   * @param goalState the solved node, -1 if there is none
+   * @param exhausted true if the search stopped because nothing was left to expand
+   */
+  private void setEndStatus(int goalState, boolean exhausted)
+  {
+    if(goalState >= 0)
+      endStatus = SolveResult.Status.SOLVED;
+    else if(isCancelled())
+      endStatus = SolveResult.Status.CANCELLED;
+    else if(!exhausted && nodeLimit > 0 && expanded >= nodeLimit)
+      endStatus = SolveResult.Status.NODE_LIMIT;
+    else if(!exhausted)
+      endStatus = SolveResult.Status.TIMED_OUT;
+    else
+      endStatus = SolveResult.Status.UNSOLVABLE;
+  }
 
   /**
-  *   Generates all possible branches for the state of the Sokoban
-  *
-  *   @param parent the state of the parent
-  *
-  *   @return Arraylist of the child nodes (possible branches for the state)
+   * Runs the forward push search and the backward pull search on the calling thread,
+   * always expanding the side with the smaller open list, until a solved state comes up
+   * or the two searches reach the same state
    *
-  * */
-  private ArrayList<sokoState> createConnections(sokoState parent)
+   * @param initialState the initial state in the node pool
+   *
+   * @return the forward node that is solved or where the searches met, -1 if there is none
+   */
+  private int solveBidirectional(int initialState)
+  {
+    int goalState = -1;
+    int[] boxCells = nodes.getBoxes(nodes.getLayout(initialState));
+    long regionKey = regionKeyOf(initialState);
+
+    initStartDistances(boxCells);
+    visitedRegions = new TranspositionTable(tableBudget / 2, offHeapTable, true);
+    visitedPulls = new TranspositionTable(tableBudget / 2, offHeapTable, true);
+
+    nodes.push(initialState, getPriority(0, nodes.getHeuristic(initialState)));
+    visitedRegions.add(regionKey, 0);
+    visitedRegions.setValue(regionKey, initialState);
+    addPullRoots(boxCells.length);
+
+    while(goalState < 0 && meetingPull < 0 && !nodes.isOpenEmpty() && !isCancelled() && !isOverBudget(expanded))
+    {
+      // the smaller side is expanded, so the search that stays small does most of the work
+      if(!pullNodes.isOpenEmpty() && pullNodes.openSize() < nodes.openSize())
+      {
+        int node = pullNodes.poll();
+        createPullConnections(node);
+        expanded++;
+        stats.notePeakOpen(nodes.openSize() + pullNodes.openSize());
+        reportProgress(bestNode);
+        continue;
+      }
+
+      int node = nodes.poll();
+      if(nodes.getHeuristic(node) == 0)
+        goalState = node;
+      else
+      {
+        noteBest(node);
+        createPushConnections(node);
+        expanded++;
+        stats.notePeakOpen(nodes.openSize() + pullNodes.openSize());
+        reportProgress(bestNode);
+      }
+    }
+
+    if(meetingPull >= 0)
+      goalState = meetingPush;
+    setEndStatus(goalState, nodes.isOpenEmpty());
+    return goalState;
+  }
+
+  /**
+   * Puts the solved layout in the backward search, once for every region of the floor the
+   * player can be in with all the boxes on the goals. A level with more goals than boxes
+   * has no single solved layout, its backward search stays empty and the forward search
+   * runs alone
+   *
+   * @param boxCount number of boxes of the level
+   */
+  private void addPullRoots(int boxCount)
+  {
+    pullNodes = new NodePool(boxCount);
+    if(level.goalCells.length != boxCount)
+      return;
+
+    int[] goalBoxes = level.goalCells.clone();
+    boolean[] covered = new boolean[level.cells];
+    GoalMatching matching = GoalMatching.solve(startDistance, goalBoxes);
+
+    Arrays.sort(goalBoxes);
+    for(int goal : goalBoxes)
+      covered[goal] = true;
+
+    // a region with only dead cells has no pull that can lead back to the start
+    for(int cell : level.floorCells)
+      if(!level.deadSquare[cell] && !covered[cell])
+      {
+        int[] playerPos = {cell / width, cell % width};
+        int region = normalizedPlayerCell(buildBoard(goalBoxes, cell, workBoard), playerPos);
+        for(int reached = 0; reached < covered.length; reached++)
+          if(reachMark[reached] == reachStamp)
+            covered[reached] = true;
+
+        long key = computeZobrist(goalBoxes, region);
+        if(visitedPulls.add(key, 0))
+        {
+          int root = pullNodes.add(-1, ' ', region, pullNodes.addLayout(goalBoxes), 0, matching.cost, key);
+          pullNodes.push(root, getPriority(0, matching.cost));
+          visitedPulls.setValue(key, root);
+          meet(visitedRegions.getValue(key), root);
+        }
+      }
+  }
+
+  /**
+   * Generates all the box pulls the player can make from a state of the backward search
+   * and adds them to its open list. A pull is stored as the push that undoes it
+   *
+   * @param parent the node of the parent in the backward search
+   */
+  private void createPullConnections(int parent)
   {
     char[] actions = {'u', 'd', 'l', 'r'};
-    ArrayList<sokoState> childNodes = new ArrayList<>();
-    ArrayList<sokoState> tempChildNodes = new ArrayList<>();
+    int[] offsets = {-width, width, -1, 1};
+    ArrayList<int[]> pulls = new ArrayList<>(); // {box cell, direction of the push that undoes the pull}
+    int[] parentBoxes = pullNodes.getBoxes(pullNodes.getLayout(parent));
+    int playerCell = pullNodes.getPlayerCell(parent);
+    char[][] board = buildBoard(parentBoxes, playerCell, workBoard);
+    char[][] childBoard = new char[level.height][width];
 
-    // All child node candidates will first start as a copy of the parent
+    normalizedPlayerCell(board, new int[]{playerCell / width, playerCell % width});
+    for(int box : parentBoxes)
+      for(int d = 0; d < 4; d++)
+      {
+        int to = level.neighbour[box * 4 + (d ^ 1)]; // where the player stands, the box is pulled onto it
+        int back = to < 0 ? -1 : level.neighbour[to * 4 + (d ^ 1)]; // where the player steps back to
+        if(back < 0 || reachMark[to] != reachStamp || level.deadSquare[to] || unreachableSquare[to])
+          continue;
+        char behind = board[back / width][back % width];
+        if(behind != '$' && behind != '*')
+          pulls.add(new int[]{box, d});
+      }
 
-    for(int i = 0; i < 4; i++) // iterate all the actions
+    // the node only kept the cost of its matching, the matching is solved again for its pulls
+    GoalMatching parentMatching = null;
+    if(!pulls.isEmpty())
+    {
+      long start = System.nanoTime();
+      parentMatching = GoalMatching.solve(startDistance, parentBoxes);
+      stats.heuristicNanos += System.nanoTime() - start;
+    }
+
+    for(int[] pull : pulls)
     {
-      if(isValidMove(actions[i], parent)) // check if the moves is valid
+      int box = pull[0];
+      int to = box - offsets[pull[1]];
+      int back = to - offsets[pull[1]];
+      int[] childBoxes = moveBox(parentBoxes, box, to);
+      long key = pullNodes.getZobristKey(parent) ^ level.playerZobrist[playerCell] ^ level.playerZobrist[back]
+              ^ level.boxZobrist[box] ^ level.boxZobrist[to];
+      int region = normalizedPlayerCell(buildBoard(childBoxes, back, childBoard), new int[]{back / width, back % width});
+      long regionKey = key ^ level.playerZobrist[back] ^ level.playerZobrist[region];
+      int cost = pullNodes.getCost(parent) + 1;
+
+      if(!visitedPulls.add(regionKey, cost))
+        stats.duplicates++;
+      else
       {
-        tempChildNodes.add(new sokoState(parent, actions[i])); // add the valid child nodes to a temp
-        tempChildNodes.get(tempChildNodes.size() - 1).setAction(actions[i]); // set the action to the corresponding move done
+        long start = System.nanoTime();
+        GoalMatching matching = parentMatching.moveBox(startDistance, parentBoxes, childBoxes, box, to);
+        stats.heuristicNanos += System.nanoTime() - start;
+        if(!matching.isComplete()) // some starting box could not have been pushed here
+        {
+          stats.matchingPrunes++;
+          continue;
+        }
+        int child = pullNodes.add(parent, actions[pull[1]], back, pullNodes.addLayout(childBoxes), cost, matching.cost, key);
+        stats.nodesGenerated++;
+        pullNodes.push(child, getPriority(cost, matching.cost));
+        visitedPulls.setValue(regionKey, child);
+        meet(visitedRegions.getValue(regionKey), child);
       }
     }
+  }
 
-    for(int i = 0; i < tempChildNodes.size(); i++) // iterate all the temporary children
+  /**
+   * Records where the forward and backward searches reached the same state, the first
+   * meeting found is kept
+   *
+   * @param pushNode the forward node, -1 if the state is not in the forward search
+   * @param pullNode the backward node, -1 if the state is not in the backward search
+   */
+  private void meet(int pushNode, int pullNode)
+  {
+    if(pushNode >= 0 && pullNode >= 0 && meetingPull < 0)
     {
-      tempChildNodes.set(i, updateBoard(parent, tempChildNodes.get(i).action, tempChildNodes.get(i).currentState, tempChildNodes.get(i).playerPos));
-      // ^^ updates the sokoState (changes to when the move is executed) of all the temporary children
+      meetingPush = pushNode;
+      meetingPull = pullNode;
+    }
+  }
+
+  /**
+   * Runs iterative deepening A* over pushes on the calling thread. Only the current line
+   * and the children of its nodes are kept in the node pool, so the memory grows with the
+   * depth of the solution, plus the transposition table if it is turned on
+   *
+   * @param initialState the initial state in the node pool
+   *
+   * @return the solved node, -1 if the search ended without one
+   */
+  private int solveIdaStar(int initialState)
+  {
+    long regionKey = regionKeyOf(initialState);
+    int bound = nodes.getHeuristic(initialState);
+    bestHeuristic = bound;
+
+    if(idaTable)
+      visitedRegions = new TranspositionTable(tableBudget, offHeapTable);
+    else
+      idaLine = new HashSet<>();
 
-      // if the state of that temporary child has no duplicate (not in the hash of visited states)
-      if(!visitedStates.contains(hashState(tempChildNodes.get(i).currentState)))
+    while(true)
+    {
+      // the table only holds for one bound, a state cut off before may go deeper now
+      if(visitedRegions != null)
       {
-        if(!isFailedState(getBoxPos(tempChildNodes.get(i).currentState), tempChildNodes.get(i).currentState)) // check if the state is doable (no stuck box/player)
-          childNodes.add(tempChildNodes.get(i)); // add the temp child to the real list
+        visitedRegions.clear();
+        visitedRegions.add(regionKey, 0);
+      }
 
-        visitedStates.add(hashState(tempChildNodes.get(i).currentState)); // add the added child to visited states (hash table)
+      int next = idaSearch(initialState, bound);
+      if(next == IDA_FOUND || next == IDA_STOPPED || next == Integer.MAX_VALUE)
+      {
+        int goalState = next == IDA_FOUND ? idaGoal : -1;
+        setEndStatus(goalState, next == Integer.MAX_VALUE);
+        return goalState;
       }
+      bound = next; // the smallest cost + heuristic that went over the bound
+    }
+  }
+
+  private static final int IDA_FOUND = -1;
+  private static final int IDA_STOPPED = -2;
+  private int idaGoal;
+  private HashSet<Long> idaLine; // region keys of the current line, when IDA_STAR runs without a table
+
+  /**
+   * Depth first search below a node, cut off where cost + heuristic goes over the bound
+   *
+   * @param node the node to search below
+   * @param bound the cost + heuristic bound of this iteration
+   *
+   * @return IDA_FOUND, IDA_STOPPED when a limit ran out or the solve was cancelled, or the
+   * smallest cost + heuristic over the bound (Integer.MAX_VALUE if nothing went over it)
+   */
+  private int idaSearch(int node, int bound)
+  {
+    int f = nodes.getCost(node) + nodes.getHeuristic(node);
+    if(f > bound)
+      return f;
+    if(nodes.getHeuristic(node) == 0)
+    {
+      idaGoal = node;
+      return IDA_FOUND;
+    }
+    if(isCancelled() || isOverBudget(expanded))
+    {
+      bestNode = node; // the current line is the partial result
+      return IDA_STOPPED;
+    }
+
+    // without a table the line is still kept from going round in a cycle
+    long regionKey = 0;
+    if(idaLine != null)
+    {
+      regionKey = regionKeyOf(node);
+      if(!idaLine.add(regionKey))
+        return Integer.MAX_VALUE;
+    }
+
+    int nodeMark = nodes.size();
+    int layoutMark = nodes.layoutCount();
+    int min = Integer.MAX_VALUE;
+
+    createPushConnections(node);
+    expanded++;
+    stats.notePeakOpen(nodes.size());
+    bestHeuristic = Math.min(bestHeuristic, nodes.getHeuristic(node)); // kept without a best node, the pool is cut back
+    reportProgress(node);
+
+    // the children closest to the goal are searched first
+    Integer[] children = new Integer[nodes.size() - nodeMark];
+    for(int i = 0; i < children.length; i++)
+      children[i] = nodeMark + i;
+    Arrays.sort(children, (a, b) -> Integer.compare(nodes.getHeuristic(a), nodes.getHeuristic(b)));
+
+    for(int child : children)
+    {
+      int next = idaSearch(child, bound);
+      if(next == IDA_FOUND || next == IDA_STOPPED)
+        return next; // the line stays in the pool to be read back
+      min = Math.min(min, next);
+    }
+
+    nodes.truncate(nodeMark, layoutMark);
+    if(idaLine != null)
+      idaLine.remove(regionKey);
+    return min;
+  }
+
+  /**
+   * Sends the progress to the listener if there is one and the progress interval has
+   * gone by. The clock is only read every 64 nodes, so this costs next to nothing
+   *
+   * @param shownNode the node whose board is sent, -1 for none
+   */
+  private void reportProgress(int shownNode)
+  {
+    if(listener == null || (expanded & 63) != 0 || System.nanoTime() < nextProgress)
+      return;
+
+    nextProgress = System.nanoTime() + progressInterval;
+    char[][] board = shownNode >= 0 ? buildBoard(shownNode, new char[level.height][width]) : null;
+    listener.onProgress(new SolveProgress((System.nanoTime() - startTime) / 1000000, expanded, board != null ? bestHeuristic : -1, board));
+  }
+
+  /**
+   * Keeps track of the expanded node with the lowest heuristic
+   */
+  private void noteBest(int node)
+  {
+    if(bestNode < 0 || nodes.getHeuristic(node) < bestHeuristic)
+    {
+      bestNode = node;
+      bestHeuristic = nodes.getHeuristic(node);
     }
+  }
+
+  /**
+   * @param expandedNodes nodes expanded so far
+   *
+   * @return true once the time or node limit of the solve is used up
+   */
+  private boolean isOverBudget(long expandedNodes)
+  {
+    return (nodeLimit > 0 && expandedNodes >= nodeLimit) || (timeLimit > 0 && System.nanoTime() - startTime >= timeLimit);
+  }
+
+  /**
+   * @return the node pool holding a node, the worker's pool in a parallel solve
+   */
+  private NodePool poolOf(int node)
+  {
+    return workers == null ? nodes : workers[node % workers.length].nodes;
+  }
+
+  /**
+   * @return the index of a node inside its pool
+   */
+  private int indexOf(int node)
+  {
+    return workers == null ? node : node / workers.length;
+  }
+
+  /**
+   * Adds a new child node to the pool and to the open list
+   *
+   * @param cost moves or pushes done to reach the child, more than one for a macro push
+   *
+   * @return the new node
+   */
+  private int addChild(int parent, char action, int playerCell, int layout, int cost, int heuristic, long key)
+  {
+    int child = nodes.add(parent, action, playerCell, layout, cost, heuristic, key);
+    if(searchStrategy != SearchStrategy.IDA_STAR) // IDA* goes through the children itself
+      nodes.push(child, getPriority(cost, heuristic));
+    stats.nodesGenerated++;
+    return child;
+  }
+
+  /**
+   * Checks a push child against the table of visited regions
+   *
+   * @param regionKey key of the child with the player reduced to its region
+   * @param cost pushes done to reach the child
+   *
+   * @return true if the child should be kept
+   */
+  private boolean isNewState(long regionKey, int cost)
+  {
+    boolean isNew;
+    if(searchStrategy != SearchStrategy.IDA_STAR)
+      isNew = visitedRegions.add(regionKey, cost);
+    else // IDA* only skips a state reached before with no more pushes, the bound left below it is no bigger
+      isNew = visitedRegions == null || visitedRegions.addIfCheaper(regionKey, cost);
+
+    if(!isNew)
+      stats.duplicates++;
+    return isNew;
+  }
+
+  /**
+   * @param cost moves (STEP) or pushes (PUSH) done to get to the state
+   * @param heuristic the heuristic of the state
+   *
+   * @return the value the open nodes are ordered by, depending on the search strategy
+   */
+  private double getPriority(int cost, int heuristic)
+  {
+    switch (searchStrategy) {
+      case ASTAR:
+        return cost + heuristic;
+      case WEIGHTED_ASTAR:
+        return cost + weight * heuristic;
+      default:
+        return heuristic;
+    }
+  }
+
+  /**
+   * Rebuilds the board of a node from the level and the node's box layout and player cell
+   *
+   * @param node the node
+   * @param board the array to fill in, the same size as the level
+   *
+   * @return the filled in board
+   */
+  private char[][] buildBoard(int node, char[][] board)
+  {
+    return buildBoard(nodes.getBoxes(nodes.getLayout(node)), nodes.getPlayerCell(node), board);
+  }
+
+  /**
+   * Builds a board from the level and a box layout and player cell
+   *
+   * @param boxCells the cells of the boxes
+   * @param playerCell the cell of the player
+   * @param board the array to fill in, the same size as the level
+   *
+   * @return the filled in board
+   */
+  private char[][] buildBoard(int[] boxCells, int playerCell, char[][] board)
+  {
+    for(int i = 0; i < level.height; i++)
+      System.arraycopy(level.board[i], 0, board[i], 0, width);
+    for(int cell : boxCells)
+      board[cell / width][cell % width] = board[cell / width][cell % width] == '.' ? '*' : '$';
+    board[playerCell / width][playerCell % width] = board[playerCell / width][playerCell % width] == '.' ? '+' : '@';
+
+    return board;
+  }
+
+  /**
+   * Finds the shortest walk of the player between two cells without pushing any box
+   *
+   * @param currentState current state of the Sokoban puzzle
+   * @param from cell index the player starts on
+   * @param to cell index the player has to reach
+   *
+   * @return the moves of the walk, empty if the player is already there
+   */
+  private String findWalk(char[][] currentState, int from, int to)
+  {
+    char[] actions = {'u', 'd', 'l', 'r'};
+    int[] previous = new int[level.cells];
+    char[] moveTo = new char[previous.length];
+    int head = 0;
+    int tail = 0;
+    StringBuilder walk = new StringBuilder();
+
+    Arrays.fill(previous, -1);
+    previous[from] = from;
+    reachQueue[tail++] = from;
+
+    while(head < tail && previous[to] == -1)
+    {
+      int cell = reachQueue[head++];
+      for(int d = 0; d < 4; d++)
+      {
+        int next = level.neighbour[cell * 4 + d];
+        if(next < 0 || previous[next] != -1)
+          continue;
+        char tile = currentState[next / width][next % width];
+        if(tile != '$' && tile != '*')
+        {
+          previous[next] = cell;
+          moveTo[next] = actions[d];
+          reachQueue[tail++] = next;
+        }
+      }
+    }
+
+    for(int cell = to; cell != from; cell = previous[cell])
+      walk.append(moveTo[cell]);
+
+    return walk.reverse().toString();
+  }
+
+  /**
+   * Turns the chain of pushes ending in the goal state into the full list of player moves
+   *
+   * @param goalState the solved node found by the push search
+   *
+   * @return the string of moves, walks included
+   */
+  private String buildPushSolution(int goalState)
+  {
+    ArrayList<Integer> path = new ArrayList<>();
+    StringBuilder moves = new StringBuilder();
+
+    // in a parallel solve a parent can be in the pool of another worker
+    for(int node = goalState; node != -1; node = poolOf(node).getParent(indexOf(node)))
+      path.add(0, node);
+
+    for(int k = 1; k < path.size(); k++)
+    {
+      NodePool pool = poolOf(path.get(k));
+      NodePool parentPool = poolOf(path.get(k - 1));
+      int node = indexOf(path.get(k));
+      int parent = indexOf(path.get(k - 1));
+      int[] parentBoxes = parentPool.getBoxes(parentPool.getLayout(parent));
+      int[] childBoxes = pool.getBoxes(pool.getLayout(node));
+      int from = movedBox(parentBoxes, childBoxes);
+      int to = movedBox(childBoxes, parentBoxes);
+      char move = pool.getMove(node);
+      char action = Character.toLowerCase(move);
+      int offset = action == 'u' ? -width : action == 'd' ? width : action == 'l' ? -1 : 1;
+      char[][] board = buildBoard(parentBoxes, parentPool.getPlayerCell(parent), workBoard);
+
+      moves.append(findWalk(board, parentPool.getPlayerCell(parent), from - offset));
+      if(move != action) // a goal room macro: pushed along to the door, then the route of the room
+      {
+        for(int cell = from; cell != macroMoves.getDoor(); cell += offset)
+          moves.append(action);
+        int direction = action == 'u' ? 0 : action == 'd' ? 1 : action == 'l' ? 2 : 3;
+        moves.append(macroMoves.getRoomRoute(macroMoves.roomStep(moveBox(parentBoxes, from, macroMoves.getDoor()), direction), direction));
+      }
+      else // one push, or a tunnel macro pushing the box along a straight line
+        for(int cell = from; cell != to; cell += offset)
+          moves.append(action);
+    }
+
+    return moves.toString();
+  }
 
-    return childNodes;
+  /**
+   * @param boxCells sorted box cells of one state
+   * @param otherBoxes sorted box cells of a state one push away
+   *
+   * @return the cell of the first state that has no box in the other one
+   */
+  private int movedBox(int[] boxCells, int[] otherBoxes)
+  {
+    for(int cell : boxCells)
+      if(Arrays.binarySearch(otherBoxes, cell) < 0)
+        return cell;
+    return -1;
   }
 
   /**
-   * @param state current state of the sokoban
-   * @return string representation of the 2D array
+   * Turns the backward search's chain of pulls, from the state where the searches met to
+   * the solved layout, into player moves. Each pull is played as the push that undoes it
+   *
+   * @param pushNode the forward node where the searches met
+   * @param pullNode the backward node of the same state
+   *
+   * @return the moves from the meeting state to the solved state
    */
-  private String hashState(char[][] state)
+  private String buildPullSolution(int pushNode, int pullNode)
   {
-    StringBuilder hash = new StringBuilder();
+    StringBuilder moves = new StringBuilder();
+    int player = nodes.getPlayerCell(pushNode);
+
+    for(int node = pullNode; pullNodes.getParent(node) != -1; node = pullNodes.getParent(node))
+    {
+      // walk to where the pull left the player, then push the box back
+      char[][] board = buildBoard(pullNodes.getBoxes(pullNodes.getLayout(node)), player, workBoard);
+      char action = pullNodes.getMove(node);
+      int offset = action == 'u' ? -width : action == 'd' ? width : action == 'l' ? -1 : 1;
 
-    for (char[] row : state)
-      for (char cell : row)
-        hash.append(cell);
+      moves.append(findWalk(board, player, pullNodes.getPlayerCell(node)));
+      moves.append(action);
+      player = pullNodes.getPlayerCell(node) + offset;
+    }
 
-    return hash.toString();
+    return moves.toString();
   }
 
   /**
-   * Solves the manhattan distance of the boxes and the goals used for the heuristics
+   * Reads the moves of the STEP search back from the goal node to the initial state
    *
-   * @param goalPos positions of the goal
-   * @param boxPos positions of the box
+   * @param goalState the solved node found by the step search
    *
-   * @return the manhattan distance between the boxes and goals
+   * @return the string of moves
    */
-  public int manDist(int[] goalPos, int[] boxPos)
+  private String buildStepSolution(int goalState)
   {
-    return Math.abs(goalPos[0] - boxPos[0]) + Math.abs(goalPos[1] - boxPos[1]);
+    StringBuilder moves = new StringBuilder();
+
+    for(int node = goalState; nodes.getParent(node) != -1; node = nodes.getParent(node))
+      moves.append(nodes.getMove(node));
+
+    return moves.reverse().toString();
   }
 
   /**
-   * Gets the positions(x, y) of boxes given the current state
-   * of the board
+   * Flood fills the cells the player can walk to without pushing a box, and returns the
+   * top-left-most one so that all player positions in the same region share one key
+   *
    * @param currentState current state of the Sokoban puzzle
+   * @param playerPos the current position of the player
    *
-   * @return the arraylist of all the positions of the boxes
+   * @return the smallest cell index reachable by the player
    */
-  public ArrayList<int[]> getBoxPos(char[][] currentState)
+  private int normalizedPlayerCell(char[][] currentState, int[] playerPos)
   {
-    ArrayList<int[]> boxPos = new ArrayList<>(); // box positions
+    int start = playerPos[0] * width + playerPos[1];
+    int min = start;
+    int head = 0;
+    int tail = 0;
+
+    reachStamp++;
+    reachMark[start] = reachStamp;
+    reachQueue[tail++] = start;
+
+    while(head < tail)
+    {
+      int cell = reachQueue[head++];
+
+      if(cell < min)
+        min = cell;
 
-    for(int i = 0; i < currentState.length; i++)
-      for(int j = 0; j < currentState[i].length; j++)
+      // the neighbour table has no walls, only the boxes are looked up on the board
+      for(int d = 0; d < 4; d++)
       {
-        // Get the box positions
-        if(currentState[i][j] == '$') {
-          boxPos.add(new int[]{i, j});
-        }
-        // Get the box in goal tile
-        if(currentState[i][j] == '*') {
-          boxPos.add(new int[]{i, j});
+        int next = level.neighbour[cell * 4 + d];
+        if(next >= 0 && reachMark[next] != reachStamp)
+        {
+          char tile = currentState[next / width][next % width];
+          if(tile != '$' && tile != '*')
+          {
+            reachMark[next] = reachStamp;
+            reachQueue[tail++] = next;
+          }
         }
       }
+    }
 
-    return boxPos;
+    return min;
   }
 
   /**
-   * Calculates for a heuristic of a given state
+   * Computes the Zobrist key of a state from scratch (only needed for the initial state)
    *
-   * @param currentState the current state of the Sokoban puzzle
+   * @param boxCells sorted cell indices of the boxes
+   * @param playerCell cell index of the player
    *
-   * @return the heuristic of the state
+   * @return the Zobrist key of the state
    */
-  public int getHeuristic(char[][] currentState)
+  private long computeZobrist(int[] boxCells, int playerCell)
   {
-    int heuristic = 0;
-    int boxNotGoal = 0;
-    ArrayList<int[]> boxPos = new ArrayList<>(); // box positions
-    ArrayList<int[]> goalPos = new ArrayList<>(); // goal Positions
-    int[] playerPos = new int[2];
-    int min;
+    long key = level.playerZobrist[playerCell];
 
-    // Get the goal and box positions for the state that is being evaluated
-    for(int i = 0; i < currentState.length; i++)
-      for(int j = 0; j < currentState[i].length; j++)
-      {
-        // Get the box positions
-        if(currentState[i][j] == '@' || currentState[i][j] == '+')
-        {
-          playerPos[0] = i;
-          playerPos[1] = j;
-        }
-        if(currentState[i][j] == '$')
-        {
-          boxPos.add(new int[]{i, j});
-          boxNotGoal++;
-        }
-        // Get the goal positions
-        if(currentState[i][j] == '.' || currentState[i][j] == '+')
-          goalPos.add(new int[]{i, j});
-
-        // Get the box pos in goal tile
-        if(currentState[i][j] == '*') {
-          boxPos.add(new int[]{i, j});
-          goalPos.add(new int[]{i, j});
-        }
-      }
+    for(int cell : boxCells)
+      key ^= level.boxZobrist[cell];
+
+    return key;
+  }
+
+  /**
+   * @return the Zobrist key of a node with the player reduced to the smallest cell of its region
+   */
+  private long regionKeyOf(int node)
+  {
+    int playerCell = nodes.getPlayerCell(node);
+    int region = normalizedPlayerCell(buildBoard(node, workBoard), new int[]{playerCell / width, playerCell % width});
+    return nodes.getZobristKey(node) ^ level.playerZobrist[playerCell] ^ level.playerZobrist[region];
+  }
+
+  /**
+   * Moves one box in the packed box layout, keeping the cell indices sorted
+   *
+   * @param boxCells sorted cell indices of the boxes before the push
+   * @param from cell of the pushed box
+   * @param to cell the box is pushed to
+   *
+   * @return a new sorted array with the box moved
+   */
+  private int[] moveBox(int[] boxCells, int from, int to)
+  {
+    int[] moved = boxCells.clone();
+    int i = Arrays.binarySearch(moved, from);
 
-    // Compare the distance of a box to each goal and add to the array the minimum distance got
-    for(int i = 0; i < boxPos.size(); i++)
+    // shift the neighbours over until the new cell is in its sorted place
+    while(i > 0 && moved[i - 1] > to)
+    {
+      moved[i] = moved[i - 1];
+      i--;
+    }
+    while(i < moved.length - 1 && moved[i + 1] < to)
     {
-      min = manDist(goalPos.get(0), boxPos.get(i));
-      for (int j = 1; j < goalPos.size(); j++)
-        if(manDist(goalPos.get(j), boxPos.get(i)) < min)
-          min = manDist(goalPos.get(j), boxPos.get(i));
-      heuristic += min;
+      moved[i] = moved[i + 1];
+      i++;
     }
+    moved[i] = to;
 
-    return heuristic + (boxNotGoal * 2);
+    return moved;
   }
 
   /**
    *  checks if the state cannot be continued anymore (not a solution anymore)
    *
-   * @param boxPos positions of the boxes
+   * @param boxCells sorted cell indices of the boxes
    * @param currentState current state of the Sokoban puzzle
    *
    * @return if the state is not a solution anymore, true. if the state can still be continues, false.
    */
-  public boolean isFailedState(ArrayList<int[]> boxPos, char[][] currentState)
+  public boolean isFailedState(int[] boxCells, char[][] currentState)
   {
-    for (int i = 0; i < boxPos.size(); i++)
+    for (int cell : boxCells)
     {
-      if (currentState[boxPos.get(i)[0]][boxPos.get(i)[1]] == '$' && currentState[boxPos.get(i)[0] + 1][boxPos.get(i)[1]] == '#' && currentState[boxPos.get(i)[0] + 1][boxPos.get(i)[1] - 1] == '#' && currentState[boxPos.get(i)[0]][boxPos.get(i)[1] - 1] == '#')
-        return true;
-      if (currentState[boxPos.get(i)[0]][boxPos.get(i)[1]] == '$' && currentState[boxPos.get(i)[0] + 1][boxPos.get(i)[1]] == '#' && currentState[boxPos.get(i)[0] + 1][boxPos.get(i)[1] + 1] == '#' && currentState[boxPos.get(i)[0]][boxPos.get(i)[1] + 1] == '#')
-        return true;
-      if (currentState[boxPos.get(i)[0]][boxPos.get(i)[1]] == '$' && currentState[boxPos.get(i)[0] - 1][boxPos.get(i)[1]] == '#' && currentState[boxPos.get(i)[0] - 1][boxPos.get(i)[1] - 1] == '#' && currentState[boxPos.get(i)[0]][boxPos.get(i)[1] - 1] == '#')
-        return true;
-      if (currentState[boxPos.get(i)[0]][boxPos.get(i)[1]] == '$' && currentState[boxPos.get(i)[0] - 1][boxPos.get(i)[1]] == '#' && currentState[boxPos.get(i)[0] - 1][boxPos.get(i)[1] + 1] == '#' && currentState[boxPos.get(i)[0]][boxPos.get(i)[1] + 1] == '#')
+      // a box on a dead square can never reach a goal (this covers the wall corners)
+      if (level.deadSquare[cell])
         return true;
       //adding the other conditions to the loop
-      if (isFailedStateIndiv(boxPos.get(i), currentState)){
+      if (isFailedStateIndiv(new int[]{cell / width, cell % width}, currentState)){
         return true;
     }
   }
     return false;
   }
 
+  /**
+   * Runs the freeze, learned pattern and corral deadlock checks enabled by the deadlock
+   * level on a state right after a push
+   *
+   * @param board the state after the push
+   * @param boxCells sorted cell indices of the boxes after the push
+   * @param playerCell the cell of the player after the push
+   * @param pushedTo the cell the box was pushed to
+   *
+   * @return true if the state can no longer be solved
+   */
+  boolean isDeadlocked(char[][] board, int[] boxCells, int playerCell, int pushedTo)
+  {
+    if(deadlockLevel == DeadlockLevel.BASIC)
+      return false;
+    if(deadlockDetector.isFreezeDeadlock(board, pushedTo))
+    {
+      stats.freezePrunes++;
+      return true;
+    }
+    if(deadlockLevel != DeadlockLevel.CORRAL)
+      return false;
+
+    // the corrals proven dead so far are looked up first, the corral search only runs when none match
+    if(deadlockDetector.matchesDeadPattern(board, playerCell, pushedTo))
+    {
+      stats.patternPrunes++;
+      return true;
+    }
+    if(deadlockDetector.isCorralDeadlock(board, boxCells, playerCell, pushedTo))
+    {
+      stats.corralPrunes++;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * isFailedState, counted in the statistics of the solve
+   */
+  private boolean isFailed(int[] boxCells, char[][] board)
+  {
+    if(!isFailedState(boxCells, board))
+      return false;
+    stats.failedStatePrunes++;
+    return true;
+  }
+
   /**
    * Checks each individual box if the boxes they are stuck to are stuck
    *
@@ -255,78 +1310,209 @@ public class SokoBot {
    */
   public boolean isFailedStateIndiv(int[] boxPos, char[][] currentState)
   {
-      if (currentState[boxPos[0]][boxPos[1]] == '$' && (currentState[boxPos[0] + 1][boxPos[1]] == '$' && isFailedStateIndiv(new int[]{boxPos[0] + 1, boxPos[1]},  currentState))
-      && currentState[boxPos[0] + 1][boxPos[1] - 1] == '#' && currentState[boxPos[0]][boxPos[1] - 1] == '#')
+      if (tileAt(currentState, boxPos[0], boxPos[1]) == '$' && (tileAt(currentState, boxPos[0] + 1, boxPos[1]) == '$' && isFailedStateIndiv(new int[]{boxPos[0] + 1, boxPos[1]},  currentState))
+      && tileAt(currentState, boxPos[0] + 1, boxPos[1] - 1) == '#' && tileAt(currentState, boxPos[0], boxPos[1] - 1) == '#')
         return true;
 
-      if (currentState[boxPos[0]][boxPos[1]] == '$' && currentState[boxPos[0] + 1][boxPos[1]] == '#' && currentState[boxPos[0] + 1][boxPos[1] + 1] == '#' && currentState[boxPos[0]][boxPos[1] + 1] == '$' && isFailedStateIndiv(new int[]{boxPos[0], boxPos[1] + 1},  currentState))
+      if (tileAt(currentState, boxPos[0], boxPos[1]) == '$' && tileAt(currentState, boxPos[0] + 1, boxPos[1]) == '#' && tileAt(currentState, boxPos[0] + 1, boxPos[1] + 1) == '#' && tileAt(currentState, boxPos[0], boxPos[1] + 1) == '$' && isFailedStateIndiv(new int[]{boxPos[0], boxPos[1] + 1},  currentState))
         return true;
 
-      if (currentState[boxPos[0]][boxPos[1]] == '$' && currentState[boxPos[0] + 1][boxPos[1]] == '$' && currentState[boxPos[0] ][boxPos[1] + 1] == '#' && currentState[boxPos[0] + 1][boxPos[1] + 1] == '#')
+      if (tileAt(currentState, boxPos[0], boxPos[1]) == '$' && tileAt(currentState, boxPos[0] + 1, boxPos[1]) == '$' && tileAt(currentState, boxPos[0], boxPos[1] + 1) == '#' && tileAt(currentState, boxPos[0] + 1, boxPos[1] + 1) == '#')
         return true;
 
-      if (currentState[boxPos[0]][boxPos[1]] == '$' && currentState[boxPos[0] - 1][boxPos[1]] == '#' && currentState[boxPos[0] - 1][boxPos[1] + 1] == '#' && currentState[boxPos[0]][boxPos[1] + 1] == '$' && isFailedStateIndiv(new int[]{boxPos[0], boxPos[1] + 1},  currentState))
+      if (tileAt(currentState, boxPos[0], boxPos[1]) == '$' && tileAt(currentState, boxPos[0] - 1, boxPos[1]) == '#' && tileAt(currentState, boxPos[0] - 1, boxPos[1] + 1) == '#' && tileAt(currentState, boxPos[0], boxPos[1] + 1) == '$' && isFailedStateIndiv(new int[]{boxPos[0], boxPos[1] + 1},  currentState))
         return true;
 
       return false;
   }
 
+  /**
+   * Solves the goal matching of a node about to be expanded. The nodes only keep the cost
+   * of their matching as the heuristic, a whole matching per open node would take more
+   * memory than the node itself
+   *
+   * @param boxCells sorted box cells of the node
+   *
+   * @return the matching, null when the heuristic is not MATCHING
+   */
+  GoalMatching solveMatching(int[] boxCells)
+  {
+    if(heuristicType != HeuristicType.MATCHING)
+      return null;
+    long start = System.nanoTime();
+    GoalMatching matching = GoalMatching.solve(level.goalDistance, boxCells);
+    stats.heuristicNanos += System.nanoTime() - start;
+    return matching;
+  }
+
+  /**
+   * Updates the goal matching of the parent after a push, only the goal of the pushed
+   * box is re-assigned
+   *
+   * @param parentMatching the matching of the node the push is made from
+   * @param parentBoxes sorted box cells before the push
+   * @param childBoxes sorted box cells after the push
+   * @param from cell the box was pushed from
+   * @param to cell the box was pushed to
+   *
+   * @return the matching of the child, null when the heuristic is not MATCHING
+   */
+  GoalMatching pushMatching(GoalMatching parentMatching, int[] parentBoxes, int[] childBoxes, int from, int to)
+  {
+    if(heuristicType != HeuristicType.MATCHING)
+      return null;
+    long start = System.nanoTime();
+    GoalMatching matching = parentMatching.moveBox(level.goalDistance, parentBoxes, childBoxes, from, to);
+    stats.heuristicNanos += System.nanoTime() - start;
+    return matching;
+  }
+
+  /**
+   * Gets the heuristic of a child after a push without rescanning the board. NEAREST_GOAL
+   * swaps the cost of the box's old cell for the new one, MATCHING takes the cost of the
+   * child's matching. A walk simply keeps the heuristic of its parent
+   *
+   * @param parentHeuristic the heuristic of the node the push is made from
+   * @param matching the matching of the child (MATCHING heuristic only)
+   * @param from cell the box was pushed from
+   * @param to cell the box was pushed to
+   *
+   * @return the heuristic of the child
+   */
+  int evaluate(int parentHeuristic, GoalMatching matching, int from, int to)
+  {
+    if(heuristicType == HeuristicType.NEAREST_GOAL)
+      return parentHeuristic - level.boxCost[from] + level.boxCost[to];
+    return matching.cost;
+  }
+
+  /**
+   * Finds the pushes from every starting box to every cell, the backward search's
+   * heuristic, and marks the cells no box can be pushed to from where the boxes start
+   *
+   * @param boxCells sorted cell indices of the boxes at the start
+   */
+  private void initStartDistances(int[] boxCells)
+  {
+    boolean[] reached = new boolean[level.cells];
+    int[] queue = new int[level.cells];
+    int head = 0;
+    int tail = 0;
+
+    startDistance = new int[boxCells.length][];
+    for(int b = 0; b < boxCells.length; b++)
+      startDistance[b] = level.pushDistances(boxCells[b], false);
+
+    for(int box : boxCells)
+    {
+      reached[box] = true;
+      queue[tail++] = box;
+    }
+
+    // the same walk as the dead squares, but pushing away from the start instead of pulling away from the goals
+    while(head < tail)
+    {
+      int box = queue[head++];
+      for(int d = 0; d < 4; d++)
+      {
+        int next = level.neighbour[box * 4 + d]; // the box is pushed here
+        int player = level.neighbour[box * 4 + (d ^ 1)]; // the player pushes from here
+        if(next >= 0 && player >= 0 && !reached[next])
+        {
+          reached[next] = true;
+          queue[tail++] = next;
+        }
+      }
+    }
+
+    unreachableSquare = new boolean[level.cells];
+    for(int cell = 0; cell < level.cells; cell++)
+      unreachableSquare[cell] = !reached[cell];
+  }
+
+  /**
+   * Checks if a move pushes a box onto a dead square
+   *
+   * @param move the move to be checked
+   * @param currentState the current state of the Sokoban puzzle
+   * @param playerPos the current position of the player
+   *
+   * @return true if the move pushes a box onto a dead square, false otherwise
+   */
+  private boolean isDeadPush(char move, char[][] currentState, int[] playerPos)
+  {
+    int offset = move == 'u' ? -width : move == 'd' ? width : move == 'l' ? -1 : 1;
+    int next = playerPos[0] * width + playerPos[1] + offset;
+    char tile = currentState[next / width][next % width];
+
+    return (tile == '$' || tile == '*') && level.deadSquare[next + offset];
+  }
+
   /**
    * Checks if a move is valid
    *
    * @param move the move to be checked
-   * @param currentSokoState the current state of the Sokoban puzzle
+   * @param currentState the current state of the Sokoban puzzle
+   * @param playerPos the current position of the player
    *
    * @return if the move is valid, true. if the move is not valid, false.
    */
-  public boolean isValidMove(char move, sokoState currentSokoState)
+  public boolean isValidMove(char move, char[][] currentState, int[] playerPos)
   {
     boolean isValid = true; // if clear (empty space OR box can be pushed OR no walls in the way)
-    char[][] currentState = currentSokoState.currentState;
-    int[] playerPos = currentSokoState.playerPos;
 
     if (move == 'u') {
-      if (currentState[playerPos[0] - 1][playerPos[1]] == '#') // check wall
+      if (tileAt(currentState, playerPos[0] - 1, playerPos[1]) == '#') // check wall
         isValid = false;
-      else if (currentState[playerPos[0] - 1][playerPos[1]] == '$' || currentState[playerPos[0] - 1][playerPos[1]] == '*') // check box/box in goal
-        if (currentState[playerPos[0] - 2][playerPos[1]] == '#' || currentState[playerPos[0] - 2][playerPos[1]] == '$' || currentState[playerPos[0] - 2][playerPos[1]] == '*')
+      else if (tileAt(currentState, playerPos[0] - 1, playerPos[1]) == '$' || tileAt(currentState, playerPos[0] - 1, playerPos[1]) == '*') // check box/box in goal
+        if (tileAt(currentState, playerPos[0] - 2, playerPos[1]) == '#' || tileAt(currentState, playerPos[0] - 2, playerPos[1]) == '$' || tileAt(currentState, playerPos[0] - 2, playerPos[1]) == '*')
           isValid = false; // ^^ if box meets a wall/another box in push
     }
     else if (move == 'd') {
-      if (currentState[playerPos[0] + 1][playerPos[1]] == '#') // check wall
+      if (tileAt(currentState, playerPos[0] + 1, playerPos[1]) == '#') // check wall
         isValid = false;
-      else if (currentState[playerPos[0] + 1][playerPos[1]] == '$' || currentState[playerPos[0] + 1][playerPos[1]] == '*') // check box/box in goal
-        if (currentState[playerPos[0] + 2][playerPos[1]] == '#' || currentState[playerPos[0] + 2][playerPos[1]] == '$' || currentState[playerPos[0] + 2][playerPos[1]] == '*')
+      else if (tileAt(currentState, playerPos[0] + 1, playerPos[1]) == '$' || tileAt(currentState, playerPos[0] + 1, playerPos[1]) == '*') // check box/box in goal
+        if (tileAt(currentState, playerPos[0] + 2, playerPos[1]) == '#' || tileAt(currentState, playerPos[0] + 2, playerPos[1]) == '$' || tileAt(currentState, playerPos[0] + 2, playerPos[1]) == '*')
           isValid = false; // ^^ if box meets a wall/another box in push
     }
     else if (move == 'l') {
-      if (currentState[playerPos[0]][playerPos[1] - 1] == '#') // check wall
+      if (tileAt(currentState, playerPos[0], playerPos[1] - 1) == '#') // check wall
         isValid = false;
-      else if (currentState[playerPos[0]][playerPos[1] - 1] == '$' || currentState[playerPos[0]][playerPos[1] - 1] == '*') // check box/box in goal
-        if (currentState[playerPos[0]][playerPos[1] - 2] == '#' || currentState[playerPos[0]][playerPos[1] - 2] == '$' || currentState[playerPos[0]][playerPos[1] - 2] == '*')
+      else if (tileAt(currentState, playerPos[0], playerPos[1] - 1) == '$' || tileAt(currentState, playerPos[0], playerPos[1] - 1) == '*') // check box/box in goal
+        if (tileAt(currentState, playerPos[0], playerPos[1] - 2) == '#' || tileAt(currentState, playerPos[0], playerPos[1] - 2) == '$' || tileAt(currentState, playerPos[0], playerPos[1] - 2) == '*')
           isValid = false; // ^^ if box meets a wall/another box in push
     }
     else if (move == 'r') {
-      if (currentState[playerPos[0]][playerPos[1] + 1] == '#') // check wall
+      if (tileAt(currentState, playerPos[0], playerPos[1] + 1) == '#') // check wall
         isValid = false;
-      else if (currentState[playerPos[0]][playerPos[1] + 1] == '$' || currentState[playerPos[0]][playerPos[1] + 1] == '*') // check box/box in goal
-        if (currentState[playerPos[0]][playerPos[1] + 2] == '#' || currentState[playerPos[0]][playerPos[1] + 2] == '$' || currentState[playerPos[0]][playerPos[1] + 2] == '*')
+      else if (tileAt(currentState, playerPos[0], playerPos[1] + 1) == '$' || tileAt(currentState, playerPos[0], playerPos[1] + 1) == '*') // check box/box in goal
+        if (tileAt(currentState, playerPos[0], playerPos[1] + 2) == '#' || tileAt(currentState, playerPos[0], playerPos[1] + 2) == '$' || tileAt(currentState, playerPos[0], playerPos[1] + 2) == '*')
           isValid = false; // ^^ if box meets a wall/another box in push
     }
     return isValid;
   }
 
 
+  /**
+   * @return the tile of a board at a row and column, a wall past the edges of the grid
+   */
+  private static char tileAt(char[][] board, int row, int col)
+  {
+    if(row < 0 || row >= board.length || col < 0 || col >= board[row].length)
+      return '#';
+    return board[row][col];
+  }
+
   /**
    * Updates a board state given a move
    *
    * @param move  the move taken
-   * @param currentState  the current state of the sokoban puzzle
+   * @param currentState  the current state of the sokoban puzzle, updated in place
    * @param playerPos the current position of the player
    *
-   * @return the new state of the sokoban puzzle after the update
+   * @return the new position of the player after the update
    */
-  public sokoState updateBoard(sokoState parent, char move, char[][] currentState, int[] playerPos)
+  public int[] updateBoard(char move, char[][] currentState, int[] playerPos)
   {
     int[] newPlayerPos = new int[2];
     switch (move) {
@@ -416,7 +1602,139 @@ public class SokoBot {
           currentState[playerPos[0]][playerPos[1]] = ' '; // deletes the old '@'
       }
      }
-    return new sokoState(currentState, newPlayerPos, move, getHeuristic(currentState), parent);
+    return newPlayerPos;
+  }
+
+  /**
+   * Sets how the search expands the states
+   *
+   * @param searchMode STEP for single player moves, PUSH for box pushes
+   */
+  public void setSearchMode(SearchMode searchMode)
+  {
+    this.searchMode = searchMode;
+  }
+
+  /**
+   * Sets how the open nodes are ordered
+   *
+   * @param searchStrategy GREEDY, ASTAR or WEIGHTED_ASTAR
+   */
+  public void setSearchStrategy(SearchStrategy searchStrategy)
+  {
+    this.searchStrategy = searchStrategy;
+  }
+
+  /**
+   * Sets the weight of the heuristic for WEIGHTED_ASTAR, higher weights find solutions
+   * faster but longer
+   *
+   * @param weight the weight, at least 1
+   */
+  public void setWeight(double weight)
+  {
+    if(weight < 1)
+      throw new IllegalArgumentException("weight must be at least 1");
+    this.weight = weight;
+  }
+
+  /**
+   * Sets how the states are scored
+   *
+   * @param heuristicType NEAREST_GOAL or MATCHING
+   */
+  public void setHeuristicType(HeuristicType heuristicType)
+  {
+    this.heuristicType = heuristicType;
+  }
+
+  /**
+   * Sets which deadlock checks prune the children
+   *
+   * @param deadlockLevel BASIC, FREEZE or CORRAL
+   */
+  public void setDeadlockLevel(DeadlockLevel deadlockLevel)
+  {
+    this.deadlockLevel = deadlockLevel;
+  }
+
+  /**
+   * Sets how many threads the push search runs on. With more than one, the states are
+   * split between the threads by their hash and every thread searches its own share
+   * (STEP mode always runs on one thread). The first solved state found ends the search,
+   * so ASTAR no longer promises the fewest pushes when running on several threads
+   *
+   * @param threads number of threads, 1 for the plain single thread search
+   */
+  public void setThreads(int threads)
+  {
+    if(threads < 1)
+      throw new IllegalArgumentException("At least one thread is needed");
+    this.threads = threads;
+  }
+
+  /**
+   * Turns the macro moves of the push search on or off: pushes along a tunnel made as
+   * one move, and boxes taken into the goal room in a fixed order
+   *
+   * @param useMacros true to find the tunnels and goal room of each level
+   */
+  public void setMacroMoves(boolean useMacros)
+  {
+    this.useMacros = useMacros;
+  }
+
+  /**
+   * Sets the listener told about the progress and the end of every solve. Progress is
+   * sent at most once per interval, from the solving thread
+   *
+   * @param listener the listener, null for none
+   * @param intervalMillis least milliseconds between two progress calls
+   */
+  public void setSolveListener(SolveListener listener, long intervalMillis)
+  {
+    if(intervalMillis <= 0)
+      throw new IllegalArgumentException("The progress interval must be positive");
+    this.listener = listener;
+    this.progressInterval = intervalMillis * 1000000;
+  }
+
+  /**
+   * Sets the cache asked before every solve. A level found in it (in any rotation or
+   * reflection) is answered without a search, and every solved level is added to it
+   *
+   * @param cache the cache, null to always search
+   */
+  public void setSolutionCache(SolutionCache cache)
+  {
+    this.solutionCache = cache;
+  }
+
+  /**
+   * Turns the transposition table of IDA_STAR on or off. Without it the search keeps only
+   * the current line, but states reached along several lines are searched again
+   *
+   * @param useTable true to keep a table of the table budget
+   */
+  public void setIdaTable(boolean useTable)
+  {
+    this.idaTable = useTable;
+  }
+
+  /**
+   * Sets how much memory the tables of visited states may use. The tables are made at
+   * this size when the solve starts and never grow, when they are full the deepest
+   * states are replaced
+   *
+   * @param budgetBytes the budget in bytes
+   * @param offHeap true to keep the tables outside the Java heap
+   */
+  public void setTableBudget(long budgetBytes, boolean offHeap)
+  {
+    if(budgetBytes <= 0)
+      throw new IllegalArgumentException("The table budget must be positive");
+    this.tableBudget = budgetBytes;
+    this.offHeapTable = offHeap;
   }
 
   /**
@@ -431,81 +1749,207 @@ public class SokoBot {
    */
   public String solveSokobanPuzzle(int width, int height, char[][] mapData, char[][] itemsData)
   {
-    // save all possible data needed by the states into different arrays
-    ArrayList<sokoState> visitedQ = new ArrayList<>();
-    int[] playerPos = new int[2];
-    char[][] copyPanel = new char[mapData.length][mapData[0].length];
-    String moves = "";
-    int i, j, k;
-    boolean found = false;
-    Comparator<sokoState> heuristicCheck = Comparator.comparingInt(sokoState::getHeuristic);
-    PriorityQueue<sokoState> openNodes = new PriorityQueue<>(heuristicCheck); // keeps track of nodes yet to be visited
-
-    // saves map into 2D array
-    for(i = 0; i < itemsData.length; i++)
-      for(j = 0; j < itemsData[i].length; j++)
-      {
-        copyPanel[i][j] = ' ';
-        // get the player position
-        if(itemsData[i][j] == '@')
-        {
-          playerPos[0] = i;
-          playerPos[1] = j;
-          copyPanel[i][j] = '@';
-        }
-        // get the box positions
-        if(itemsData[i][j] == '$')
-          copyPanel[i][j] = '$';
-        // get the goal positions
-        if(mapData[i][j] == '.')
-          copyPanel[i][j] = '.';
-        // get the wall positions
-        if(mapData[i][j] == '#')
-          copyPanel[i][j] = '#';
-        // gets the player position in a goal
-        if(itemsData[i][j] == '@' && mapData[i][j] == '.')
-          copyPanel[i][j] = '+';
-        // box is in goal tile
-        if(mapData[i][j] == '.' && itemsData[i][j] == '$')
-          copyPanel[i][j] = '*';
-      }
+    SolveResult result = solveWithLimits(width, height, mapData, itemsData, 0, 0);
+    return result.isSolved() ? result.getMoves() : "";
+  }
 
-    sokoState initialState = new sokoState(copyPanel, playerPos, ' ', getHeuristic(copyPanel), null);
+  /**
+   * Solves the sokoban puzzle within a time and node budget. The search stops as soon as
+   * either runs out, cancel is called, or the solving thread is interrupted
+   *
+   * @param width width of the puzzle
+   * @param height  height of the puzzle
+   * @param mapData the positions of the walls, empty spaces, and goals
+   * @param itemsData the positions of the boxes and player
+   * @param timeLimitMillis most milliseconds to search, 0 for no limit
+   * @param nodeLimit most nodes to expand, 0 for no limit
+   *
+   * @return how the solve ended, with the solution or the best partial line and the
+   * statistics of the search (also sent as a sokobot.Solve Flight Recorder event)
+   */
+  public SolveResult solveWithLimits(int width, int height, char[][] mapData, char[][] itemsData,
+                                     long timeLimitMillis, long nodeLimit)
+  {
+    if(timeLimitMillis < 0 || nodeLimit < 0)
+      throw new IllegalArgumentException("The limits cannot be negative");
 
-    visitedQ.add(initialState); // put the initial state in the queue
-    visitedStates.add(hashState(initialState.currentState)); // add the state in the hash table for duplicate checking
+    cancelled = false;
+    this.timeLimit = timeLimitMillis * 1000000;
+    this.nodeLimit = nodeLimit;
+    this.startTime = System.nanoTime();
+    this.expanded = 0;
+    this.bestNode = -1;
+    this.stats = new SolverStats();
+    this.nextProgress = startTime + progressInterval;
+    SolveEvent event = new SolveEvent();
+    SolveResult result;
 
-    for(k = 0; !found; k++)
+    String cached = solutionCache == null ? null : solutionCache.get(width, height, mapData, itemsData);
+    if(cached != null)
     {
-      ArrayList<sokoState> temp = createConnections(visitedQ.get(k)); // gets the children of the current node
+      stats.elapsedMillis = (System.nanoTime() - startTime) / 1000000;
+      result = new SolveResult(SolveResult.Status.SOLVED, cached, stats);
+      if(listener != null)
+        listener.onFinished(result);
+      return result;
+    }
+
+    event.begin();
+    try {
+      String moves = solve(mapData, itemsData);
+      stats.nodesExpanded = expanded;
+      stats.elapsedMillis = (System.nanoTime() - startTime) / 1000000;
 
-      for(i = 0; i < temp.size(); i++) {
-        openNodes.offer(temp.get(i));
+      event.end();
+      if(event.shouldCommit())
+      {
+        event.fill(stats);
+        event.status = endStatus.name();
+        event.searchMode = searchMode.name();
+        event.searchStrategy = searchStrategy.name();
+        event.solutionLength = moves.length();
+        event.commit();
       }
+      result = new SolveResult(endStatus, moves, stats);
+    } finally {
+      releaseSearch(); // the nodes and tables are not needed once the moves are built
+    }
+
+    if(solutionCache != null && result.isSolved())
+      solutionCache.put(width, height, mapData, itemsData, result.getMoves());
+
+    if(listener != null)
+      listener.onFinished(result);
+    return result;
+  }
+
+  /**
+   * Stops a running solve from another thread, the result is then CANCELLED (and
+   * solveSokobanPuzzle returns an empty string). Interrupting the solving thread does the same
+   */
+  public void cancel()
+  {
+    cancelled = true;
+    ParallelSearch search = activeSearch;
+    if(search != null)
+      search.cancel();
+  }
+
+  private boolean isCancelled()
+  {
+    return cancelled || Thread.currentThread().isInterrupted();
+  }
 
-      if(visitedQ.get(k).heuristic == 0)
-        found = true;
+  /**
+   * Drops everything the search made, so a finished or cancelled solver holds no memory
+   */
+  private void releaseSearch()
+  {
+    nodes = null;
+    visitedStates = null;
+    visitedRegions = null;
+    workers = null;
+    deadlockDetector = null;
+    macroMoves = null;
+    pullNodes = null;
+    visitedPulls = null;
+  }
+
+  /**
+   * Sets a level up for the search: compiles it, makes the scratch arrays, the deadlock
+   * detector and the node pool, and puts the initial state in the pool. The tables of
+   * visited states are left to the search that runs. The benchmarks call it to expand
+   * single nodes without a search around them
+   *
+   * @param mapData the positions of the walls, empty spaces, and goals
+   * @param itemsData the positions of the boxes and player
+   *
+   * @return the initial state, -1 if the level has more boxes than goals
+   */
+  int prepareSearch(char[][] mapData, char[][] itemsData)
+  {
+    // the walls and goals are compiled once, the states only keep the boxes and the player
+    level = new Level(mapData);
+    this.width = level.width;
+    reachMark = new int[level.cells];
+    reachQueue = new int[level.cells];
+    workBoard = new char[level.height][width];
+    deadlockDetector = new DeadlockDetector(level);
 
-      visitedQ.get(k).setChildNodes(temp);
-      visitedQ.add(openNodes.poll());
+    int[] boxCells = new int[level.floorCells.length];
+    int boxCount = 0;
+    int playerCell = -1;
+
+    // the floor cells are in order, so the box cells come out sorted
+    for(int cell : level.floorCells)
+    {
+      char item = itemsData[cell / width][cell % width];
+      if(item == '$')
+        boxCells[boxCount++] = cell;
+      else if(item == '@')
+        playerCell = cell;
     }
+    boxCells = Arrays.copyOf(boxCells, boxCount);
+
+    // every box needs a goal of its own, the matching and the goal test count on that
+    if(boxCount > level.goalCells.length)
+      return -1;
+
+    GoalMatching matching = solveMatching(boxCells);
+    int heuristic = matching != null ? matching.cost : 0;
+    if(matching == null)
+      for(int cell : boxCells)
+        heuristic += level.boxCost[cell];
+    macroMoves = useMacros ? new MacroMoves(level, boxCells, playerCell) : null;
 
-    sokoState temp = visitedQ.get(k-1);
-    moves = temp.action + moves;
+    nodes = new NodePool(boxCells.length);
+    return nodes.add(-1, ' ', playerCell, nodes.addLayout(boxCells), 0, heuristic, computeZobrist(boxCells, playerCell));
+  }
+
+  /**
+   * Sets up the level and runs the search
+   *
+   * @param mapData the positions of the walls, empty spaces, and goals
+   * @param itemsData the positions of the boxes and player
+   *
+   * @return the string of moves to be used to solve the puzzle
+   */
+  private String solve(char[][] mapData, char[][] itemsData)
+  {
+    String moves = "";
+    int goalState;
+
+    // the searches did not meet until solveBidirectional says so, it is the only one that runs a backward search
+    meetingPush = -1;
+    meetingPull = -1;
 
-    while(temp.parent.action == 'd' || temp.parent.action == 'u' ||
-            temp.parent.action == 'l' || temp.parent.action == 'r')
+    int initialState = prepareSearch(mapData, itemsData);
+    if(initialState < 0)
     {
-      moves = temp.parent.action + moves;
-      temp = temp.parent;
+      endStatus = SolveResult.Status.UNSOLVABLE;
+      return moves;
     }
 
-    //System.out.println("MOVES: " + moves.length());
-    try {
-          //Thread.sleep(3000);
-        } catch (Exception ex) {
-          ex.printStackTrace();
-        }
+    // the parallel search only runs over pushes, STEP mode always runs on one thread
+    if(searchStrategy == SearchStrategy.IDA_STAR)
+      goalState = solveIdaStar(initialState);
+    else if(threads > 1 && searchMode == SearchMode.PUSH)
+      goalState = solveInParallel(initialState);
+    else if(searchMode == SearchMode.BIDIRECTIONAL)
+      goalState = solveBidirectional(initialState);
+    else
+      goalState = solveInSingleThread(initialState);
+
+    int lastState = goalState >= 0 ? goalState : bestNode; // an unfinished solve gives the line to the state closest to the goal
+    if(lastState < 0)
+      return moves;
+    if(searchMode == SearchMode.STEP && searchStrategy != SearchStrategy.IDA_STAR)
+      moves = buildStepSolution(lastState);
+    else
+      moves = buildPushSolution(lastState);
+    if(meetingPull >= 0 && goalState == meetingPush)
+      moves += buildPullSolution(goalState, meetingPull);
+
     return moves; // plays the solution in the bot
   }
 }
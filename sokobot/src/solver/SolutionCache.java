@@ -0,0 +1,548 @@
+package solver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Solutions of levels solved before, kept in a file so a level solved in an earlier run
+ * is answered without a search.
+ *
+ * A level is keyed by a fingerprint of its walls, goals and boxes, with the player
+ * replaced by the region it can walk in, cropped to those (a level without a wall border
+ * keeps its goals, boxes and region) and taken in whichever of the 8 rotations and
+ * reflections gives the smallest text. The same level turned,
+ * mirrored, padded differently or with the player elsewhere in its region gets the same
+ * key. Solutions are stored in that canonical orientation, starting from the first cell
+ * of the region, and turned back when read, their first walk replaced by one from the player.
+ *
+ * The file holds the key (the first 8 bytes of a SHA-256 of the fingerprint) and the
+ * moves at 2 bits each. When the cache is full the least recently used solution goes.
+ * Every hit is replayed on the level before it is returned, so a bad entry is never used.
+ *
+ * Puts and hits only change the cache in memory and mark it as changed. The file is
+ * written by flush or close, once for any number of changes, so storing a solution does
+ * not hold the lock while the whole file is written.
+ */
+public class SolutionCache implements Closeable {
+  private static final int MAGIC = 0x534B4243; // "SKBC"
+  private static final int VERSION = 1;
+  private static final String ACTIONS = "udlr";
+  private static final int[][] DIRECTIONS = {{-1, 0}, {1, 0}, {0, -1}, {0, 1}};
+
+  /**
+   * A level brought to its canonical form
+   */
+  private static class canonicalLevel {
+    long key;
+    int transform; // the rotation and reflection that gives the canonical form
+    int startRow; // where stored solutions start, in the level as given
+    int startColumn;
+  }
+
+  private final File file;
+  private final int maxEntries;
+  private final LinkedHashMap<Long, String> solutions;
+  private boolean dirty; // solutions or their use order changed since the file was written
+
+  /**
+   * Opens a cache, reading the solutions already in the file. A missing or unreadable
+   * file gives an empty cache
+   *
+   * @param file the file the solutions are kept in
+   * @param maxEntries most solutions kept, the least recently used ones are dropped
+   */
+  public SolutionCache(File file, int maxEntries)
+  {
+    if(maxEntries <= 0)
+      throw new IllegalArgumentException("The cache must hold at least one solution");
+
+    this.file = file;
+    this.maxEntries = maxEntries;
+    this.solutions = new LinkedHashMap<Long, String>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, String> eldest)
+      {
+        return size() > SolutionCache.this.maxEntries;
+      }
+    };
+
+    if(file.isFile())
+      try {
+        load();
+      } catch (IOException e) {
+        solutions.clear(); // a damaged file is replaced on the next flush after a put
+      }
+  }
+
+  /**
+   * Looks a level up
+   *
+   * @param width width of the puzzle
+   * @param height height of the puzzle
+   * @param mapData the positions of the walls, empty spaces, and goals
+   * @param itemsData the positions of the boxes and player
+   *
+   * @return the moves that solve the level, null if it is not in the cache
+   */
+  public synchronized String get(int width, int height, char[][] mapData, char[][] itemsData)
+  {
+    canonicalLevel level = canonicalize(width, height, mapData, itemsData);
+    String stored = solutions.get(level.key);
+    if(stored == null)
+      return null;
+    dirty = true; // the hit made the level the most recently used
+
+    int[] back = new int[4]; // the inverse of the level's transform, per direction
+    for(int d = 0; d < 4; d++)
+      back[turn(d, level.transform)] = d;
+
+    StringBuilder turned = new StringBuilder(stored.length());
+    for(int i = 0; i < stored.length(); i++)
+      turned.append(ACTIONS.charAt(back[ACTIONS.indexOf(stored.charAt(i))]));
+
+    // the stored walk up to the first push is replaced by the shortest walk from the player
+    int[] player = playerCell(width, height, itemsData);
+    int[] push = firstPush(width, height, mapData, itemsData, turned, level.startRow, level.startColumn);
+    if(push == null)
+      return null;
+    String walk = walk(width, height, mapData, itemsData, player[0], player[1], push[1], push[2]);
+    if(walk == null)
+      return null;
+    StringBuilder moves = new StringBuilder(walk);
+    moves.append(turned, push[0], turned.length());
+
+    return solves(width, height, mapData, itemsData, moves) ? moves.toString() : null;
+  }
+
+  /**
+   * Stores the solution of a level, the file gets it on the next flush
+   *
+   * @param width width of the puzzle
+   * @param height height of the puzzle
+   * @param mapData the positions of the walls, empty spaces, and goals
+   * @param itemsData the positions of the boxes and player
+   * @param moves moves that solve the level from the player's position
+   */
+  public synchronized void put(int width, int height, char[][] mapData, char[][] itemsData, String moves)
+  {
+    canonicalLevel level = canonicalize(width, height, mapData, itemsData);
+    int[] player = playerCell(width, height, itemsData);
+    String fromStart = walk(width, height, mapData, itemsData, level.startRow, level.startColumn, player[0], player[1]) + moves;
+    StringBuilder stored = new StringBuilder();
+
+    for(int i = 0; i < fromStart.length(); i++)
+      stored.append(ACTIONS.charAt(turn(ACTIONS.indexOf(fromStart.charAt(i)), level.transform)));
+
+    solutions.put(level.key, stored.toString());
+    dirty = true;
+  }
+
+  /**
+   * Writes the cache file if the cache changed since it was last written
+   */
+  public synchronized void flush() throws IOException
+  {
+    if(!dirty)
+      return;
+    save();
+    dirty = false;
+  }
+
+  /**
+   * Writes the changes left, the cache can still be used after
+   */
+  @Override
+  public void close() throws IOException
+  {
+    flush();
+  }
+
+  /**
+   * @return the number of solutions in the cache
+   */
+  public synchronized int size()
+  {
+    return solutions.size();
+  }
+
+  /**
+   * Writes the solutions, least recently used first, to a new file that then replaces
+   * the old one, so a crash never leaves half a file behind
+   */
+  private void save() throws IOException
+  {
+    File temp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(solutions.size());
+      for(Map.Entry<Long, String> entry : solutions.entrySet())
+      {
+        String moves = entry.getValue();
+        byte[] packed = new byte[(moves.length() + 3) / 4];
+        for(int i = 0; i < moves.length(); i++)
+          packed[i / 4] |= ACTIONS.indexOf(moves.charAt(i)) << (i % 4 * 2);
+
+        out.writeLong(entry.getKey());
+        out.writeInt(moves.length());
+        out.write(packed);
+      }
+    }
+
+    try {
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private void load() throws IOException
+  {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if(in.readInt() != MAGIC || in.readInt() != VERSION)
+        throw new IOException("Not a solution cache: " + file);
+
+      int count = in.readInt();
+      for(int n = 0; n < count; n++)
+      {
+        long key = in.readLong();
+        int length = in.readInt();
+        byte[] packed = new byte[(length + 3) / 4];
+        in.readFully(packed);
+
+        StringBuilder moves = new StringBuilder(length);
+        for(int i = 0; i < length; i++)
+          moves.append(ACTIONS.charAt(packed[i / 4] >> (i % 4 * 2) & 3));
+        solutions.put(key, moves.toString());
+      }
+    }
+  }
+
+  /**
+   * Finds the canonical form of a level, its key, and where its stored solution starts
+   */
+  private static canonicalLevel canonicalize(int width, int height, char[][] mapData, char[][] itemsData)
+  {
+    boolean[][] region = playerRegion(width, height, mapData, itemsData);
+    int top = height;
+    int bottom = -1;
+    int left = width;
+    int right = -1;
+
+    // crop to the walls, goals, boxes and the player's region, so the padding around a level
+    // does not change its key. A level without a wall border keeps everything it has
+    for(int i = 0; i < height; i++)
+      for(int j = 0; j < width; j++)
+        if(mapData[i][j] == '#' || mapData[i][j] == '.' || itemsData[i][j] == '$' || region[i][j])
+        {
+          top = Math.min(top, i);
+          bottom = Math.max(bottom, i);
+          left = Math.min(left, j);
+          right = Math.max(right, j);
+        }
+    int rows = bottom - top + 1;
+    int columns = right - left + 1;
+    canonicalLevel best = new canonicalLevel();
+    String bestText = null;
+
+    for(int t = 0; t < 8; t++)
+    {
+      boolean swapped = (t & 3) % 2 == 1;
+      int newRows = swapped ? columns : rows;
+      int newColumns = swapped ? rows : columns;
+      char[][] grid = new char[newRows][newColumns];
+      int[] start = null;
+
+      for(int i = 0; i < rows; i++)
+        for(int j = 0; j < columns; j++)
+        {
+          int[] to = place(i, j, rows, columns, t);
+          grid[to[0]][to[1]] = tileOf(mapData[top + i][left + j], itemsData[top + i][left + j], region[top + i][left + j]);
+        }
+
+      StringBuilder text = new StringBuilder();
+      text.append(newRows).append('x').append(newColumns).append('\n');
+      for(char[] row : grid)
+        text.append(row).append('\n');
+
+      if(bestText == null || text.toString().compareTo(bestText) < 0)
+      {
+        // the first region cell of the canonical grid, found back in the level as given
+        for(int i = 0; i < rows; i++)
+          for(int j = 0; j < columns; j++)
+            if(region[top + i][left + j])
+            {
+              int[] to = place(i, j, rows, columns, t);
+              if(start == null || to[0] < start[0] || (to[0] == start[0] && to[1] < start[1]))
+                start = new int[]{to[0], to[1], top + i, left + j};
+            }
+
+        bestText = text.toString();
+        best.transform = t;
+        best.startRow = start[2];
+        best.startColumn = start[3];
+      }
+    }
+
+    best.key = hash(bestText);
+    return best;
+  }
+
+  /**
+   * @return the tile of a cell in the fingerprint, the player's region gets its own tiles
+   */
+  private static char tileOf(char map, char item, boolean inRegion)
+  {
+    if(map == '#')
+      return '#';
+    if(item == '$')
+      return map == '.' ? '*' : '$';
+    if(inRegion)
+      return map == '.' ? '+' : '@';
+    return map == '.' ? '.' : ' ';
+  }
+
+  /**
+   * Moves a cell of a rows x columns grid by one of the 8 transforms: bit 2 mirrors the
+   * columns, bits 0-1 turn the grid clockwise that many quarter turns
+   *
+   * @return the row and column of the cell after the transform
+   */
+  private static int[] place(int row, int column, int rows, int columns, int transform)
+  {
+    if((transform & 4) != 0)
+      column = columns - 1 - column;
+    for(int k = 0; k < (transform & 3); k++)
+    {
+      int turned = rows - 1 - row; // a quarter turn clockwise: (r, c) goes to (c, rows - 1 - r)
+      row = column;
+      column = turned;
+      int swap = rows;
+      rows = columns;
+      columns = swap;
+    }
+    return new int[]{row, column};
+  }
+
+  /**
+   * @return the direction (index in ACTIONS) a move points to after a transform
+   */
+  private static int turn(int direction, int transform)
+  {
+    int dRow = DIRECTIONS[direction][0];
+    int dColumn = DIRECTIONS[direction][1];
+
+    if((transform & 4) != 0)
+      dColumn = -dColumn;
+    for(int k = 0; k < (transform & 3); k++)
+    {
+      int turned = -dRow;
+      dRow = dColumn;
+      dColumn = turned;
+    }
+
+    for(int d = 0; d < 4; d++)
+      if(DIRECTIONS[d][0] == dRow && DIRECTIONS[d][1] == dColumn)
+        return d;
+    return direction;
+  }
+
+  /**
+   * @return the cells the player can walk to without pushing a box
+   */
+  private static boolean[][] playerRegion(int width, int height, char[][] mapData, char[][] itemsData)
+  {
+    boolean[][] region = new boolean[height][width];
+    ArrayDeque<int[]> queue = new ArrayDeque<>();
+
+    for(int i = 0; i < height; i++)
+      for(int j = 0; j < width; j++)
+        if(itemsData[i][j] == '@')
+        {
+          region[i][j] = true;
+          queue.add(new int[]{i, j});
+        }
+
+    while(!queue.isEmpty())
+    {
+      int[] cell = queue.poll();
+      for(int[] direction : DIRECTIONS)
+      {
+        int i = cell[0] + direction[0];
+        int j = cell[1] + direction[1];
+        if(i >= 0 && i < height && j >= 0 && j < width && !region[i][j] && mapData[i][j] != '#' && itemsData[i][j] != '$')
+        {
+          region[i][j] = true;
+          queue.add(new int[]{i, j});
+        }
+      }
+    }
+
+    return region;
+  }
+
+  /**
+   * @return the row and column of the player
+   */
+  private static int[] playerCell(int width, int height, char[][] itemsData)
+  {
+    for(int i = 0; i < height; i++)
+      for(int j = 0; j < width; j++)
+        if(itemsData[i][j] == '@')
+          return new int[]{i, j};
+    throw new IllegalArgumentException("The level has no player");
+  }
+
+  /**
+   * Plays moves from a cell of the player's region up to their first push
+   *
+   * @return the index of the first push and the row and column the player pushes from,
+   * the end of the moves and the cell they lead to if nothing is pushed, null if the
+   * moves walk off the grid
+   */
+  private static int[] firstPush(int width, int height, char[][] mapData, char[][] itemsData, CharSequence moves,
+                                 int row, int column)
+  {
+    for(int m = 0; m < moves.length(); m++)
+    {
+      int[] direction = DIRECTIONS[ACTIONS.indexOf(moves.charAt(m))];
+      int i = row + direction[0];
+      int j = column + direction[1];
+      if(i < 0 || i >= height || j < 0 || j >= width)
+        return null;
+      if(itemsData[i][j] == '$' || mapData[i][j] == '#')
+        return new int[]{m, row, column};
+      row = i;
+      column = j;
+    }
+    return new int[]{moves.length(), row, column};
+  }
+
+  /**
+   * Finds the shortest walk between two cells of the player's region
+   *
+   * @return the moves of the walk, null if the player cannot get there
+   */
+  private static String walk(int width, int height, char[][] mapData, char[][] itemsData,
+                             int fromRow, int fromColumn, int toRow, int toColumn)
+  {
+    int[][] previous = new int[height * width][];
+    ArrayDeque<int[]> queue = new ArrayDeque<>();
+    int[] from = {fromRow, fromColumn};
+    int[] target = {toRow, toColumn};
+
+    previous[from[0] * width + from[1]] = from;
+    queue.add(from);
+    while(!queue.isEmpty() && previous[target[0] * width + target[1]] == null)
+    {
+      int[] cell = queue.poll();
+      for(int[] direction : DIRECTIONS)
+      {
+        int i = cell[0] + direction[0];
+        int j = cell[1] + direction[1];
+        if(i >= 0 && i < height && j >= 0 && j < width && previous[i * width + j] == null
+                && mapData[i][j] != '#' && itemsData[i][j] != '$')
+        {
+          previous[i * width + j] = cell;
+          queue.add(new int[]{i, j});
+        }
+      }
+    }
+
+    if(previous[target[0] * width + target[1]] == null)
+      return null;
+
+    StringBuilder moves = new StringBuilder();
+    for(int[] cell = target; cell[0] != from[0] || cell[1] != from[1]; cell = previous[cell[0] * width + cell[1]])
+    {
+      int[] before = previous[cell[0] * width + cell[1]];
+      for(int d = 0; d < 4; d++)
+        if(before[0] + DIRECTIONS[d][0] == cell[0] && before[1] + DIRECTIONS[d][1] == cell[1])
+          moves.append(ACTIONS.charAt(d));
+    }
+
+    return moves.reverse().toString();
+  }
+
+  /**
+   * Plays the moves on the level
+   *
+   * @return true if they are all legal (none leaves the grid) and leave every box on a goal
+   */
+  private static boolean solves(int width, int height, char[][] mapData, char[][] itemsData, CharSequence moves)
+  {
+    boolean[][] box = new boolean[height][width];
+    int row = -1;
+    int column = -1;
+
+    for(int i = 0; i < height; i++)
+      for(int j = 0; j < width; j++)
+      {
+        box[i][j] = itemsData[i][j] == '$';
+        if(itemsData[i][j] == '@')
+        {
+          row = i;
+          column = j;
+        }
+      }
+
+    for(int m = 0; m < moves.length(); m++)
+    {
+      int[] direction = DIRECTIONS[ACTIONS.indexOf(moves.charAt(m))];
+      int i = row + direction[0];
+      int j = column + direction[1];
+      if(i < 0 || i >= height || j < 0 || j >= width || mapData[i][j] == '#')
+        return false;
+      if(box[i][j])
+      {
+        int toRow = i + direction[0];
+        int toColumn = j + direction[1];
+        if(toRow < 0 || toRow >= height || toColumn < 0 || toColumn >= width || mapData[toRow][toColumn] == '#' || box[toRow][toColumn])
+          return false;
+        box[i][j] = false;
+        box[toRow][toColumn] = true;
+      }
+      row = i;
+      column = j;
+    }
+
+    for(int i = 0; i < height; i++)
+      for(int j = 0; j < width; j++)
+        if(box[i][j] && mapData[i][j] != '.')
+          return false;
+    return true;
+  }
+
+  /**
+   * @return the first 8 bytes of the SHA-256 of the fingerprint
+   */
+  private static long hash(String fingerprint)
+  {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(fingerprint.getBytes(StandardCharsets.UTF_8));
+      long key = 0;
+      for(int i = 0; i < 8; i++)
+        key = key << 8 | (digest[i] & 0xFF);
+      return key;
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e); // every Java platform has SHA-256
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package solver;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event of one solve, with the numbers of its SolverStats. It costs
+ * nothing unless a recording with the event enabled is running, e.g.
+ * java -XX:StartFlightRecording=filename=solve.jfr ...
+ */
+@Name("sokobot.Solve")
+@Label("Solve")
+@Category("Sokobot")
+@Description("One solve of a level by SokoBot")
+class SolveEvent extends Event {
+  @Label("Status")
+  String status;
+
+  @Label("Search Mode")
+  String searchMode;
+
+  @Label("Search Strategy")
+  String searchStrategy;
+
+  @Label("Solution Length")
+  int solutionLength;
+
+  @Label("Nodes Expanded")
+  long nodesExpanded;
+
+  @Label("Nodes Generated")
+  long nodesGenerated;
+
+  @Label("Duplicates")
+  long duplicates;
+
+  @Label("Failed State Prunes")
+  long failedStatePrunes;
+
+  @Label("Freeze Prunes")
+  long freezePrunes;
+
+  @Label("Pattern Prunes")
+  long patternPrunes;
+
+  @Label("Corral Prunes")
+  long corralPrunes;
+
+  @Label("Matching Prunes")
+  long matchingPrunes;
+
+  @Label("Peak Open List")
+  long peakOpen;
+
+  @Label("Heuristic Time")
+  @Timespan(Timespan.NANOSECONDS)
+  long heuristicNanos;
+
+  @Label("Nodes per Second")
+  double nodesPerSecond;
+
+  /**
+   * Copies the numbers of a finished solve into the event
+   */
+  void fill(SolverStats stats)
+  {
+    nodesExpanded = stats.nodesExpanded;
+    nodesGenerated = stats.nodesGenerated;
+    duplicates = stats.duplicates;
+    failedStatePrunes = stats.failedStatePrunes;
+    freezePrunes = stats.freezePrunes;
+    patternPrunes = stats.patternPrunes;
+    corralPrunes = stats.corralPrunes;
+    matchingPrunes = stats.matchingPrunes;
+    peakOpen = stats.peakOpen;
+    heuristicNanos = stats.heuristicNanos;
+    nodesPerSecond = stats.getNodesPerSecond();
+  }
+}
@@ -0,0 +1,24 @@
+package solver;
+
+/**
+ * Gets told how a solve is going while it runs, and how it ended. The calls are made on
+ * the solving thread (for a parallel solve, the thread that started it) between node
+ * expansions, so an implementation should return quickly and hand anything slow to its
+ * own thread, e.g. SwingUtilities.invokeLater in a GUI.
+ */
+public interface SolveListener {
+
+  /**
+   * Called at most once per progress interval while the search runs
+   *
+   * @param progress the state of the search so far
+   */
+  void onProgress(SolveProgress progress);
+
+  /**
+   * Called once when the solve is over, whatever it ended with
+   *
+   * @param result the result, the same one solveWithLimits returns
+   */
+  void onFinished(SolveResult result);
+}
@@ -0,0 +1,60 @@
+package solver;
+
+/**
+ * A snapshot of a running solve, sent to a SolveListener. It is never changed after it
+ * is made, so it can be handed to another thread as is.
+ */
+public class SolveProgress {
+  private final long elapsedMillis;
+  private final long nodesExpanded;
+  private final int bestHeuristic;
+  private final char[][] bestBoard;
+
+  SolveProgress(long elapsedMillis, long nodesExpanded, int bestHeuristic, char[][] bestBoard)
+  {
+    this.elapsedMillis = elapsedMillis;
+    this.nodesExpanded = nodesExpanded;
+    this.bestHeuristic = bestHeuristic;
+    this.bestBoard = bestBoard;
+  }
+
+  public long getElapsedMillis()
+  {
+    return elapsedMillis;
+  }
+
+  public long getNodesExpanded()
+  {
+    return nodesExpanded;
+  }
+
+  /**
+   * @return nodes expanded per second since the solve started
+   */
+  public double getNodesPerSecond()
+  {
+    return elapsedMillis == 0 ? 0 : nodesExpanded * 1000.0 / elapsedMillis;
+  }
+
+  /**
+   * @return the lowest heuristic of a state expanded so far, -1 if not known (parallel solves)
+   */
+  public int getBestHeuristic()
+  {
+    return bestHeuristic;
+  }
+
+  /**
+   * @return the board (walls, goals, boxes and player) of the state with the lowest heuristic
+   * so far, for IDA_STAR the state the search is at, null if not known (parallel solves)
+   */
+  public char[][] getBestBoard()
+  {
+    if(bestBoard == null)
+      return null;
+    char[][] copy = new char[bestBoard.length][];
+    for(int i = 0; i < bestBoard.length; i++)
+      copy[i] = bestBoard[i].clone();
+    return copy;
+  }
+}
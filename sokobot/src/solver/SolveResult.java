@@ -0,0 +1,70 @@
+package solver;
+
+/**
+ * What a solve ended with: whether the level was solved, the moves, and how much work it
+ * took. When the solve did not finish, the moves are the line to the state that got the
+ * closest to the goal (lowest heuristic), so a caller still has something to show.
+ * getStats has the counters of the search.
+ */
+public class SolveResult {
+
+  /**
+   * SOLVED: the moves solve the level. UNSOLVABLE: every reachable state was searched.
+   * TIMED_OUT: the time limit ran out. NODE_LIMIT: the node limit ran out. CANCELLED:
+   * cancel was called or the solving thread was interrupted
+   */
+  public enum Status { SOLVED, UNSOLVABLE, TIMED_OUT, NODE_LIMIT, CANCELLED }
+
+  private final Status status;
+  private final String moves;
+  private final SolverStats stats;
+
+  SolveResult(Status status, String moves, SolverStats stats)
+  {
+    this.status = status;
+    this.moves = moves;
+    this.stats = stats;
+  }
+
+  public Status getStatus()
+  {
+    return status;
+  }
+
+  public boolean isSolved()
+  {
+    return status == Status.SOLVED;
+  }
+
+  /**
+   * @return the solution if solved, otherwise the best partial line found (may be empty)
+   */
+  public String getMoves()
+  {
+    return moves;
+  }
+
+  public long getNodesExpanded()
+  {
+    return stats.getNodesExpanded();
+  }
+
+  public long getElapsedMillis()
+  {
+    return stats.getElapsedMillis();
+  }
+
+  /**
+   * @return the counters of the search that made this result
+   */
+  public SolverStats getStats()
+  {
+    return stats;
+  }
+
+  @Override
+  public String toString()
+  {
+    return status + " moves=" + moves.length() + " nodes=" + getNodesExpanded() + " time=" + getElapsedMillis() + "ms";
+  }
+}
@@ -0,0 +1,144 @@
+package solver;
+
+/**
+ * Counters of one solve, to see where the search spends its work. The solver counts into
+ * its own instance while it runs (the workers of a parallel solve each into theirs, added
+ * up at the end), so nothing here is shared between threads.
+ */
+public class SolverStats {
+  long nodesExpanded;
+  long nodesGenerated; // children kept, put in a node pool
+  long duplicates; // children dropped because their state was in a table of visited states
+  long failedStatePrunes; // dead squares and the box patterns of isFailedState
+  long freezePrunes;
+  long patternPrunes; // corrals proven dead before and looked up again
+  long corralPrunes; // corrals proven dead by a corral search
+  long matchingPrunes; // no goal matching where every box can reach its goal
+  long peakOpen;
+  long heuristicNanos;
+  long elapsedMillis;
+
+  /**
+   * Adds the counters of a worker of a parallel solve. The peak open list is the largest
+   * of any one worker
+   */
+  void add(SolverStats other)
+  {
+    nodesGenerated += other.nodesGenerated;
+    duplicates += other.duplicates;
+    failedStatePrunes += other.failedStatePrunes;
+    freezePrunes += other.freezePrunes;
+    patternPrunes += other.patternPrunes;
+    corralPrunes += other.corralPrunes;
+    matchingPrunes += other.matchingPrunes;
+    peakOpen = Math.max(peakOpen, other.peakOpen);
+    heuristicNanos += other.heuristicNanos;
+  }
+
+  void notePeakOpen(long openSize)
+  {
+    if(openSize > peakOpen)
+      peakOpen = openSize;
+  }
+
+  public long getNodesExpanded()
+  {
+    return nodesExpanded;
+  }
+
+  /**
+   * @return the children kept by the search (new, not pruned)
+   */
+  public long getNodesGenerated()
+  {
+    return nodesGenerated;
+  }
+
+  /**
+   * @return the children dropped because their state was already visited
+   */
+  public long getDuplicates()
+  {
+    return duplicates;
+  }
+
+  /**
+   * @return the children pruned by the dead squares and box patterns (every deadlock level)
+   */
+  public long getFailedStatePrunes()
+  {
+    return failedStatePrunes;
+  }
+
+  /**
+   * @return the children pruned by a freeze deadlock (FREEZE and CORRAL levels)
+   */
+  public long getFreezePrunes()
+  {
+    return freezePrunes;
+  }
+
+  /**
+   * @return the children pruned by a learned dead corral pattern (CORRAL level)
+   */
+  public long getPatternPrunes()
+  {
+    return patternPrunes;
+  }
+
+  /**
+   * @return the children pruned by a corral search (CORRAL level)
+   */
+  public long getCorralPrunes()
+  {
+    return corralPrunes;
+  }
+
+  /**
+   * @return the children pruned because some box could not be matched to a goal it can reach
+   */
+  public long getMatchingPrunes()
+  {
+    return matchingPrunes;
+  }
+
+  /**
+   * @return the most nodes in the open list at once (both open lists for BIDIRECTIONAL),
+   * for IDA_STAR the most nodes on its stack
+   */
+  public long getPeakOpen()
+  {
+    return peakOpen;
+  }
+
+  /**
+   * @return the time spent solving the goal matchings of the expanded nodes and updating them
+   * for their children, in nanoseconds
+   */
+  public long getHeuristicNanos()
+  {
+    return heuristicNanos;
+  }
+
+  public long getElapsedMillis()
+  {
+    return elapsedMillis;
+  }
+
+  /**
+   * @return nodes expanded per second over the whole solve
+   */
+  public double getNodesPerSecond()
+  {
+    return elapsedMillis == 0 ? 0 : nodesExpanded * 1000.0 / elapsedMillis;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "expanded=" + nodesExpanded + " generated=" + nodesGenerated + " duplicates=" + duplicates
+            + " prunes[failed=" + failedStatePrunes + " freeze=" + freezePrunes + " pattern=" + patternPrunes
+            + " corral=" + corralPrunes + " matching=" + matchingPrunes + "] peakOpen=" + peakOpen
+            + " heuristic=" + heuristicNanos / 1000000 + "ms nodes/s=" + Math.round(getNodesPerSecond());
+  }
+}
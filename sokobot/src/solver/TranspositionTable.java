@@ -0,0 +1,201 @@
+package solver;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Set of visited states keyed by their 64-bit Zobrist key, stored in one flat buffer with
+ * open addressing (linear probing) instead of a HashSet of key objects. The size is fixed
+ * by a byte budget when the table is made and never grows.
+ *
+ * Each slot is 12 bytes: the key (8) and the cost the state was first reached with (4).
+ * A table made with values has 4 more bytes per slot for an int stored with the key (the
+ * bidirectional search keeps node ids there). Key 0 marks an empty slot, so a state whose
+ * key is 0 is stored as 1.
+ *
+ * When the probe window of a key is full, the entry with the highest cost in the window is
+ * replaced, since states close to the initial state are reached again the most often. A
+ * replaced state can be generated again later, which only costs time, never a solution.
+ */
+class TranspositionTable {
+  private static final int SLOT_BYTES = 12;
+  private static final int VALUE_BYTES = 4;
+  private static final int PROBE_LIMIT = 16; // slots looked at before an entry gets replaced
+  private static final int MIN_SLOTS = 1024;
+
+  private final ByteBuffer slots;
+  private final int slotBytes;
+  private final int mask;
+  private int size;
+  private long replaced;
+
+  /**
+   * @param budgetBytes most bytes the table may use, rounded down to a power of two slots
+   * @param offHeap true to allocate the table outside the Java heap (direct buffer)
+   */
+  TranspositionTable(long budgetBytes, boolean offHeap)
+  {
+    this(budgetBytes, offHeap, false);
+  }
+
+  /**
+   * @param budgetBytes most bytes the table may use, rounded down to a power of two slots
+   * @param offHeap true to allocate the table outside the Java heap (direct buffer)
+   * @param withValues true to keep an int value with every key (see setValue and getValue)
+   */
+  TranspositionTable(long budgetBytes, boolean offHeap, boolean withValues)
+  {
+    this.slotBytes = withValues ? SLOT_BYTES + VALUE_BYTES : SLOT_BYTES;
+    long wanted = Math.max(budgetBytes / slotBytes, MIN_SLOTS);
+    int capacity = Integer.highestOneBit((int) Math.min(wanted, Integer.MAX_VALUE / slotBytes));
+
+    this.mask = capacity - 1;
+    this.slots = offHeap ? ByteBuffer.allocateDirect(capacity * slotBytes) : ByteBuffer.allocate(capacity * slotBytes);
+  }
+
+  /**
+   * Adds a state to the table
+   *
+   * @param key Zobrist key of the state
+   * @param cost moves or pushes done to reach the state
+   *
+   * @return true if the state was not in the table yet, false if it is a duplicate
+   */
+  boolean add(long key, int cost)
+  {
+    if(key == 0)
+      key = 1;
+
+    int start = (int) (key ^ (key >>> 32)) & mask;
+    int victim = start * slotBytes;
+    int victimCost = -1;
+
+    for(int probe = 0; probe < PROBE_LIMIT; probe++)
+    {
+      int offset = ((start + probe) & mask) * slotBytes;
+      long stored = slots.getLong(offset);
+
+      if(stored == key)
+        return false;
+      if(stored == 0)
+      {
+        write(offset, key, cost);
+        size++;
+        return true;
+      }
+
+      int storedCost = slots.getInt(offset + 8);
+      if(storedCost > victimCost)
+      {
+        victim = offset;
+        victimCost = storedCost;
+      }
+    }
+
+    // the window is full, the deepest state in it makes room for the new one
+    write(victim, key, cost);
+    replaced++;
+    return true;
+  }
+
+  /**
+   * Adds a state, or lowers its cost if it was reached with more before. Used by IDA*,
+   * where a state reached again with no fewer pushes has nothing new below it
+   *
+   * @param key Zobrist key of the state
+   * @param cost moves or pushes done to reach the state
+   *
+   * @return true if the state is new or was reached with a lower cost than before
+   */
+  boolean addIfCheaper(long key, int cost)
+  {
+    int offset = find(key);
+    if(offset < 0)
+      return add(key, cost);
+    if(slots.getInt(offset + 8) <= cost)
+      return false;
+    slots.putInt(offset + 8, cost);
+    return true;
+  }
+
+  /**
+   * Empties the table, keeping its memory
+   */
+  void clear()
+  {
+    for(int offset = 0; offset < slots.capacity(); offset += slotBytes)
+      slots.putLong(offset, 0);
+    size = 0;
+  }
+
+  private void write(int offset, long key, int cost)
+  {
+    slots.putLong(offset, key);
+    slots.putInt(offset + 8, cost);
+    if(slotBytes > SLOT_BYTES)
+      slots.putInt(offset + SLOT_BYTES, -1); // no value until setValue
+  }
+
+  /**
+   * @return the offset of the slot holding a key, -1 if the key is not in the table
+   */
+  private int find(long key)
+  {
+    if(key == 0)
+      key = 1;
+
+    int start = (int) (key ^ (key >>> 32)) & mask;
+    for(int probe = 0; probe < PROBE_LIMIT; probe++)
+    {
+      int offset = ((start + probe) & mask) * slotBytes;
+      long stored = slots.getLong(offset);
+      if(stored == key)
+        return offset;
+      if(stored == 0)
+        return -1;
+    }
+    return -1;
+  }
+
+  /**
+   * Stores a value with a key already in the table (tables made with values only)
+   */
+  void setValue(long key, int value)
+  {
+    int offset = find(key);
+    if(offset >= 0)
+      slots.putInt(offset + SLOT_BYTES, value);
+  }
+
+  /**
+   * @return the value stored with a key, -1 if the key is not in the table or has no value
+   */
+  int getValue(long key)
+  {
+    int offset = find(key);
+    return offset < 0 ? -1 : slots.getInt(offset + SLOT_BYTES);
+  }
+
+  /**
+   * @return the number of states in the table
+   */
+  int size()
+  {
+    return size;
+  }
+
+  /**
+   * @return the number of slots of the table
+   */
+  int capacity()
+  {
+    return mask + 1;
+  }
+
+  /**
+   * @return how many states were pushed out of the table because it was full
+   */
+  long getReplaced()
+  {
+    return replaced;
+  }
+}
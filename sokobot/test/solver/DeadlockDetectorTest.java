@@ -0,0 +1,94 @@
+package solver;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Corral checks on one-row levels. Each level has a box on a goal next to the player, so
+ * the corral right of the player never holds every box and the corral search runs.
+ */
+class DeadlockDetectorTest {
+
+  /**
+   * The box at the corral's edge can be pushed once, after which both corral boxes are
+   * stuck off their goals. Only a search that gets past its first push proves it dead.
+   */
+  @Test
+  void prunesCorralDeadAfterAPush()
+  {
+    state state = new state("#########", "#*.@$ $.#", "#########");
+    assertTrue(state.detector.isCorralDeadlock(state.board, state.boxes, state.player, state.player + 1));
+  }
+
+  @Test
+  void prunesCorralDeadWithoutAPush()
+  {
+    state state = new state("########", "#*.@$$.#", "########");
+    assertTrue(state.detector.isCorralDeadlock(state.board, state.boxes, state.player, state.player + 1));
+  }
+
+  @Test
+  void keepsCorralThatCanBeSolved()
+  {
+    state state = new state("########", "#*.@$ .#", "########");
+    assertFalse(state.detector.isCorralDeadlock(state.board, state.boxes, state.player, state.player + 1));
+  }
+
+  @Test
+  void learnsTheDeadCorralAsAPattern()
+  {
+    state state = new state("#########", "#*.@$ $.#", "#########");
+    int pushedTo = state.player + 1;
+    assertFalse(state.detector.matchesDeadPattern(state.board, state.player, pushedTo));
+    assertTrue(state.detector.isCorralDeadlock(state.board, state.boxes, state.player, pushedTo));
+    assertTrue(state.detector.matchesDeadPattern(state.board, state.player, pushedTo));
+  }
+
+  /**
+   * Pack levels do not always have walls around them, the grid's edge has to hold the
+   * boxes and stop the floods the same way
+   */
+  @Test
+  void prunesCorralOpenToTheGridEdge()
+  {
+    state state = new state("*.@$ $.");
+    assertTrue(state.detector.isCorralDeadlock(state.board, state.boxes, state.player, state.player + 1));
+  }
+
+  /**
+   * A level with a detector and the state to check
+   */
+  private static class state {
+    final DeadlockDetector detector;
+    final char[][] board;
+    final int[] boxes;
+    int player;
+
+    state(String... rows)
+    {
+      int width = rows[0].length();
+
+      char[][] map = new char[rows.length][width];
+      board = new char[rows.length][width];
+      ArrayList<Integer> boxCells = new ArrayList<>();
+      for(int i = 0; i < rows.length; i++)
+        for(int j = 0; j < width; j++)
+        {
+          char tile = rows[i].charAt(j);
+          board[i][j] = tile;
+          map[i][j] = tile == '#' ? '#' : tile == '.' || tile == '*' || tile == '+' ? '.' : ' ';
+          if(tile == '$' || tile == '*')
+            boxCells.add(i * width + j);
+          if(tile == '@' || tile == '+')
+            player = i * width + j;
+        }
+
+      detector = new DeadlockDetector(new Level(map));
+      boxes = boxCells.stream().mapToInt(Integer::intValue).toArray();
+    }
+  }
+}
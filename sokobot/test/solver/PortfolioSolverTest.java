@@ -0,0 +1,49 @@
+package solver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import reader.FileReader;
+import reader.MapData;
+
+/**
+ * Races on a bundled map (read from ./maps, the module's folder when the tests run)
+ */
+class PortfolioSolverTest {
+
+  /**
+   * A variant that gives up at once, the way a weak setting fails a level quickly
+   */
+  private static class givingUp extends SokoBot {
+    @Override
+    public SolveResult solveWithLimits(int width, int height, char[][] mapData, char[][] itemsData,
+                                       long timeLimitMillis, long nodeLimit)
+    {
+      return new SolveResult(SolveResult.Status.UNSOLVABLE, "", new SolverStats());
+    }
+  }
+
+  @Test
+  void keepsRacingPastAVariantThatGivesUp()
+  {
+    MapData map = new FileReader().readFile("original2");
+    String moves = new PortfolioSolver(new givingUp(), new SokoBot())
+            .solveSokobanPuzzle(map.columns, map.rows, map.getMap(), map.getItems());
+
+    SolveResult expected = new SokoBot().solveWithLimits(map.columns, map.rows, map.getMap(), map.getItems(), 0, 0);
+    assertTrue(expected.isSolved());
+    assertEquals(expected.getMoves().length(), moves.length());
+  }
+
+  @Test
+  void endsEmptyWhenEveryVariantGivesUp()
+  {
+    MapData map = new FileReader().readFile("original2");
+    String moves = new PortfolioSolver(new givingUp(), new givingUp())
+            .solveSokobanPuzzle(map.columns, map.rows, map.getMap(), map.getItems());
+
+    assertEquals("", moves);
+  }
+}
@@ -0,0 +1,81 @@
+package solver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The solution cache on pack levels without a wall border, where the player, boxes and
+ * goals can lie outside the walls
+ */
+class SolutionCacheTest {
+  @TempDir
+  File folder;
+
+  @Test
+  void solvesOpenLevelWithACache() throws IOException
+  {
+    level level = new level("###", "#.$@", "###");
+    SolutionCache cache = new SolutionCache(new File(folder, "solutions.cache"), 10);
+
+    SokoBot sokoBot = new SokoBot();
+    sokoBot.setSolutionCache(cache);
+    SolveResult solved = sokoBot.solveWithLimits(level.width, level.height, level.map, level.items, 5000, 0);
+    assertEquals(SolveResult.Status.SOLVED, solved.getStatus());
+    assertEquals("l", solved.getMoves());
+
+    SolveResult cached = sokoBot.solveWithLimits(level.width, level.height, level.map, level.items, 5000, 0);
+    assertEquals("l", cached.getMoves());
+    assertEquals(0, cached.getNodesExpanded());
+
+    cache.close();
+    SolutionCache reopened = new SolutionCache(new File(folder, "solutions.cache"), 10);
+    assertEquals("l", reopened.get(level.width, level.height, level.map, level.items));
+  }
+
+  @Test
+  void keysTheCellsOutsideTheWalls()
+  {
+    level stored = new level("###  ", "#.$@ ", "###  ");
+    level other = new level("###  ", "#.$@$", "### .");
+    SolutionCache cache = new SolutionCache(new File(folder, "solutions.cache"), 10);
+
+    cache.put(stored.width, stored.height, stored.map, stored.items, "l");
+    assertEquals("l", cache.get(stored.width, stored.height, stored.map, stored.items));
+    assertNull(cache.get(other.width, other.height, other.map, other.items));
+  }
+
+  /**
+   * A level split into the map and items the solver takes, short rows padded with floor
+   */
+  private static class level {
+    final int width;
+    final int height;
+    final char[][] map;
+    final char[][] items;
+
+    level(String... rows)
+    {
+      int longest = 0;
+      for(String row : rows)
+        longest = Math.max(longest, row.length());
+      width = longest;
+      height = rows.length;
+
+      map = new char[height][width];
+      items = new char[height][width];
+      for(int i = 0; i < height; i++)
+        for(int j = 0; j < width; j++)
+        {
+          char tile = j < rows[i].length() ? rows[i].charAt(j) : ' ';
+          map[i][j] = tile == '#' ? '#' : tile == '.' || tile == '*' || tile == '+' ? '.' : ' ';
+          items[i][j] = tile == '@' || tile == '+' ? '@' : tile == '$' || tile == '*' ? '$' : ' ';
+        }
+    }
+  }
+}